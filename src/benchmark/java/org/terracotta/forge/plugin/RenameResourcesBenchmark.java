@@ -0,0 +1,91 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renaming of the .class files of an exploded clustered entity, on a class
+ * tree of the given depth and size. The tree is restored before every
+ * invocation, outside of the measurement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class RenameResourcesBenchmark {
+
+  private static final String SUFFIX = ".class_terracotta";
+
+  @Param({ "5", "20" })
+  public int    depth;
+
+  @Param({ "1000", "20000" })
+  public int    classes;
+
+  private File  buildDirectory;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    buildDirectory = Files.createTempDirectory("rename-resources-benchmark").toFile();
+    File dir = new File(buildDirectory, "common/entity.jar");
+    for (int i = 0; i < classes; i++) {
+      File packageDir = dir;
+      for (int level = 0; level < depth; level++) {
+        packageDir = new File(packageDir, "p" + ((i >> level) % 4));
+      }
+      if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+        throw new IOException("Failed to mkdirs " + packageDir);
+      }
+      String name = "Class" + i + (i % 10 == 0 ? ".properties" : ".class");
+      if (!new File(packageDir, name).createNewFile()) {
+        throw new IOException("Failed to create " + name);
+      }
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void restore() {
+    Iterator<File> it = FileUtils.iterateFiles(buildDirectory, null, true);
+    while (it.hasNext()) {
+      File file = it.next();
+      if (file.getName().endsWith(SUFFIX)) {
+        file.renameTo(new File(file.getParentFile(), file.getName().replace(SUFFIX, ".class")));
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void delete() throws IOException {
+    FileUtils.deleteDirectory(buildDirectory);
+  }
+
+  @Benchmark
+  public Set<String> renameResources() {
+    return PackageClusteredEntityMojo.renameResources(buildDirectory, "common", SUFFIX);
+  }
+}
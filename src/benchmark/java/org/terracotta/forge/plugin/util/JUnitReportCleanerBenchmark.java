@@ -0,0 +1,208 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.CharacterIterator;
+import java.text.StringCharacterIterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and allocations of the junit report cleaning. Run it with
+ * "-prof gc": gc.alloc.rate.norm divided by the report size in MB gives the
+ * allocations per MB of report.
+ *
+ * escapeLegacy replays what the cleaner used to do for every SAX callback
+ * (String copy, trim() and StringCharacterIterator) so it can be compared
+ * with escape on the same input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JUnitReportCleanerBenchmark {
+
+  private static final int SAX_CHUNK = 64;
+
+  @State(Scope.Thread)
+  public static class ReportState {
+    @Param({ "1", "1024", "16384", "512000" })
+    public int                 reportSizeKb;
+
+    private File               dir;
+    private File               source;
+    private File               report;
+    private JUnitReportCleaner cleaner;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+      dir = Files.createTempDirectory("report-cleaner-benchmark").toFile();
+      source = new File(dir, "source.xml");
+      report = new File(dir, "TEST-com.acme.BenchmarkTest.xml");
+      writeReport(source, reportSizeKb * 1024L);
+      cleaner = new JUnitReportCleaner(new SystemStreamLog());
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() throws IOException {
+      Files.copy(source.toPath(), report.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class TextState {
+    private char[]        text;
+    private StringBuilder result;
+
+    @Setup(Level.Trial)
+    public void generate() {
+      StringBuilder builder = new StringBuilder();
+      while (builder.length() < 1024 * 1024) {
+        builder.append("java.lang.AssertionError: expected:<1> but was:<2> & \"quoted\" 'text'\n");
+        builder.append("\tat com.acme.BenchmarkTest.test(BenchmarkTest.java:42)\n");
+        builder.append("        \n");
+      }
+      text = builder.toString().toCharArray();
+      result = new StringBuilder(text.length * 2);
+    }
+  }
+
+  @Benchmark
+  public ReportSummary cleanReport(ReportState state) {
+    return state.cleaner.cleanReport(state.report);
+  }
+
+  /**
+   * 1MB of text fed by SAX sized chunks
+   */
+  @Benchmark
+  public int escape(TextState state) {
+    StringBuilder result = state.result;
+    result.setLength(0);
+    char[] text = state.text;
+    for (int start = 0; start < text.length; start += SAX_CHUNK) {
+      int length = Math.min(SAX_CHUNK, text.length - start);
+      boolean whitespace = true;
+      for (int i = start; i < start + length && whitespace; i++) {
+        whitespace = text[i] <= ' ';
+      }
+      if (!whitespace) {
+        JUnitReportCleaner.escapeXML(text, start, length, result);
+      }
+    }
+    return result.length();
+  }
+
+  @Benchmark
+  public int escapeLegacy(TextState state) {
+    StringBuilder result = state.result;
+    result.setLength(0);
+    char[] text = state.text;
+    for (int start = 0; start < text.length; start += SAX_CHUNK) {
+      String s = new String(text, start, Math.min(SAX_CHUNK, text.length - start));
+      if (s.trim().length() == 0) {
+        continue;
+      }
+      result.append(legacyEscapeXML(s));
+    }
+    return result.length();
+  }
+
+  private static String legacyEscapeXML(String s) {
+    StringBuilder result = new StringBuilder();
+    StringCharacterIterator iterator = new StringCharacterIterator(s);
+    char character = iterator.current();
+    while (character != CharacterIterator.DONE) {
+      if (character == '<') {
+        result.append("&lt;");
+      } else if (character == '>') {
+        result.append("&gt;");
+      } else if (character == '\"') {
+        result.append("&quot;");
+      } else if (character == '\'') {
+        result.append("&#039;");
+      } else if (character == '&') {
+        result.append("&amp;");
+      } else {
+        result.append(character);
+      }
+      character = iterator.next();
+    }
+    return result.toString();
+  }
+
+  /**
+   * Writes a surefire like report of roughly the given size, with the
+   * properties, failures and captured output the cleaner has to deal with
+   */
+  static void writeReport(File file, long size) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    try {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      writer.write("<testsuite name=\"com.acme.BenchmarkTest\" tests=\"0\" errors=\"0\" failures=\"0\" time=\"1.0\">\n");
+      writer.write("  <properties>\n");
+      for (int i = 0; i < 50; i++) {
+        writer.write("    <property name=\"property." + i + "\" value=\"/some/path:/another/path\"/>\n");
+      }
+      writer.write("  </properties>\n");
+      long written = 4096;
+      for (int i = 0; written < size; i++) {
+        StringBuilder testcase = new StringBuilder();
+        testcase.append("  <testcase name=\"test").append(i).append("\" classname=\"com.acme.BenchmarkTest\" time=\"0.001\">\n");
+        if (i % 10 == 0) {
+          testcase.append("    <failure message=\"expected:&lt;1&gt; but was:&lt;2&gt;\" type=\"java.lang.AssertionError\">");
+          testcase.append("java.lang.AssertionError: expected:&lt;1&gt; but was:&lt;2&gt;\n");
+          for (int frame = 0; frame < 20; frame++) {
+            testcase.append("\tat com.acme.BenchmarkTest.test").append(i).append("(BenchmarkTest.java:").append(frame).append(")\n");
+          }
+          testcase.append("</failure>\n");
+        }
+        testcase.append("    <system-out>");
+        for (int line = 0; line < 10; line++) {
+          testcase.append("INFO some log line with &amp; and &lt;tags&gt; ").append(line).append('\n');
+        }
+        testcase.append("</system-out>\n");
+        testcase.append("  </testcase>\n");
+        writer.write(testcase.toString());
+        written += testcase.length();
+      }
+      writer.write("  <system-out>suite output</system-out>\n");
+      writer.write("  <system-err>suite errors</system-err>\n");
+      writer.write("</testsuite>\n");
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Listing of jar entries as done by the generate-zip-entries goal, on jars
+ * laid out like a large shaded distribution: nested packages with a few
+ * resources among the classes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ZipEntriesBenchmark {
+
+  @Param({ "10000", "50000", "200000" })
+  public int   entries;
+
+  private File jar;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    jar = Files.createTempFile("zip-entries-benchmark", ".jar").toFile();
+    writeJar(jar, entries);
+  }
+
+  @TearDown(Level.Trial)
+  public void delete() {
+    jar.delete();
+  }
+
+  @Benchmark
+  public String getZipEntries() throws IOException {
+    return Util.getZipEntries(jar);
+  }
+
+  /**
+   * Writes a jar of the given number of small stored entries, the listing
+   * only depends on the central directory
+   */
+  static void writeJar(File file, int count) throws IOException {
+    byte[] content = new byte[64];
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      for (int i = 0; i < count; i++) {
+        String name = "com/acme/module" + (i % 20) + "/package" + (i % 500) + "/Class" + i
+                      + (i % 10 == 0 ? ".properties" : ".class");
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -4,6 +4,7 @@
 package org.terracotta.forge.plugin;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
@@ -14,8 +15,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Collect build info of the current project. Default rootPath is ${project.basedir}. This is used to get SCM info.
@@ -36,6 +42,14 @@ public class BuildInfoMojo extends AbstractMojo {
    */
   protected MavenProject      project;
 
+  /**
+   * The build, the SCM info read by the modules is cached for it
+   * 
+   * @parameter default-value="${session}"
+   * @readonly
+   */
+  protected MavenSession      session;
+
   /**
    * @parameter property="rootPath"
    */
@@ -69,6 +83,15 @@ public class BuildInfoMojo extends AbstractMojo {
    */
   private boolean             skipBranchMatchingCheck;
 
+  /**
+   * Time given to read the SCM info of all the root paths, the git commands
+   * still running then are killed
+   *
+   * @parameter property="scmTimeoutSeconds" default-value="60"
+   * @optional
+   */
+  private int                 scmTimeoutSeconds = 60;
+
   private final Properties    buildInfoProps   = new Properties();
 
   /**
@@ -83,22 +106,29 @@ public class BuildInfoMojo extends AbstractMojo {
     if (eeRootPath != null && osRootPath != null) { throw new MojoExecutionException(
             "eeRootPath and osRootPath are mutual exclusive. Both cannot be set."); }
 
+    if (scmTimeoutSeconds <= 0) { throw new MojoExecutionException(
+            "scmTimeoutSeconds must be positive: " + scmTimeoutSeconds); }
+
 
     String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
     setBuildInfoProperty("build.timestamp", timestamp);
 
-    SCMInfo scmInfo = null;
-    SCMInfo scmInfoEE = null;
-    SCMInfo scmInfoOS = null;
-    
+    Util.scopeScmInfoCache(session);
+    // all the repositories are read at the same time, within the same deadline
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(scmTimeoutSeconds);
+    CompletableFuture<SCMInfo> futureScmInfo = Util.getScmInfoAsync(rootPath, getLog());
+    CompletableFuture<SCMInfo> futureScmInfoEE = eeRootPath != null ? Util.getScmInfoAsync(eeRootPath, getLog()) : null;
+    CompletableFuture<SCMInfo> futureScmInfoOS = osRootPath != null ? Util.getScmInfoAsync(osRootPath, getLog()) : null;
+
+    String fullRevision = "";
+    SCMInfo scmInfo;
     try {
-      String fullRevision = "";
-      scmInfo = Util.getScmInfo(rootPath, getLog());
+      scmInfo = await(futureScmInfo, deadline);
       fullRevision = scmInfo.revision;
       getLog().info(String.format("Determined SCM info: %s, branch %s, revision %s", scmInfo.url, scmInfo.branch, scmInfo.revision));
-      
-      if (eeRootPath != null) {
-        scmInfoEE = Util.getScmInfo(eeRootPath, getLog());
+
+      if (futureScmInfoEE != null) {
+        SCMInfo scmInfoEE = await(futureScmInfoEE, deadline);
         setBuildInfoProperties(scmInfoEE, "build.ee");
         checkMatchingBranch(scmInfo.branch, scmInfoEE.branch);
         // we use the template EE_REVISION-OS_REVISION
@@ -108,8 +138,8 @@ public class BuildInfoMojo extends AbstractMojo {
         getLog().info(String.format("Determined SCM info (EE): %s, branch %s, revision %s", scmInfoEE.url, scmInfoEE.branch, scmInfoEE.revision));
       }
 
-      if (osRootPath != null) {
-        scmInfoOS = Util.getScmInfo(osRootPath, getLog());
+      if (futureScmInfoOS != null) {
+        SCMInfo scmInfoOS = await(futureScmInfoOS, deadline);
         setBuildInfoProperties(scmInfoOS, "build.os");
         checkMatchingBranch(scmInfoOS.branch, scmInfo.branch);
 
@@ -118,16 +148,20 @@ public class BuildInfoMojo extends AbstractMojo {
         }
         getLog().info(String.format("Determined SCM info (OS): %s, branch %s, revision %s", scmInfoOS.url, scmInfoOS.branch, scmInfoOS.revision));
       }
+    } finally {
+      // kills the git commands still running after a timeout or an error
+      for (CompletableFuture<SCMInfo> future : Arrays.asList(futureScmInfo, futureScmInfoEE, futureScmInfoOS)) {
+        if (future != null) {
+          future.cancel(true);
+        }
+      }
+    }
 
-      getLog().debug("Setting build.revision to " + fullRevision);
-      getLog().debug("Setting build.scm.url to " + scmInfo.url);
+    getLog().debug("Setting build.revision to " + fullRevision);
+    getLog().debug("Setting build.scm.url to " + scmInfo.url);
 
-      scmInfo.revision = fullRevision;
-      setBuildInfoProperties(scmInfo, "build");
-
-    } catch (IOException ioe) {
-      throw new MojoExecutionException("Error reading scm info", ioe);
-    }
+    scmInfo.revision = fullRevision;
+    setBuildInfoProperties(scmInfo, "build");
 
 
     if (generateBuildInfoFile) {
@@ -138,6 +172,19 @@ public class BuildInfoMojo extends AbstractMojo {
 
 
 
+  private static SCMInfo await(CompletableFuture<SCMInfo> future, long deadline) throws MojoExecutionException {
+    try {
+      return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (ExecutionException e) {
+      throw new MojoExecutionException("Error reading scm info", e.getCause());
+    } catch (TimeoutException e) {
+      throw new MojoExecutionException("Timed out reading scm info", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted reading scm info", e);
+    }
+  }
+
   private void generateBuildInfoFile() throws MojoExecutionException {
     PrintWriter out = null;
     try {
@@ -4,18 +4,41 @@
  */
 package org.terracotta.forge.plugin;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
+import org.terracotta.forge.plugin.util.CleanedReportIndex;
+import org.terracotta.forge.plugin.util.ForkWatchdog;
 import org.terracotta.forge.plugin.util.JUnitReportCleaner;
+import org.terracotta.forge.plugin.util.ReportArchive;
+import org.terracotta.forge.plugin.util.ReportSummary;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Fix zero-length junit reports
  * 
+ * Also writes surefire-reports/test-summary.csv, one line per test class with
+ * its totals and whether its report had to be synthesized.
+ * 
  * @author hhuynh
  * @goal fix-junit-report
  */
@@ -28,19 +51,104 @@ public class FixJUnitReportMojo extends AbstractMojo {
    * @readonly
    */
   protected MavenProject project;
+
+  /**
+   * Number of threads cleaning reports concurrently. Defaults to the number
+   * of available processors when not set or lower than 1
+   * 
+   * @parameter property="reportCleanerThreads" default-value="0"
+   */
+  private int            threads;
+
+  /**
+   * Skip reports that haven't changed since they were last cleaned. The state
+   * is kept in surefire-reports/.cleaned-reports.idx
+   * 
+   * @parameter property="incrementalReportCleaning" default-value="true"
+   */
+  private boolean        incremental = true;
+
+  /**
+   * Comma separated names of the elements removed from the reports
+   * 
+   * @parameter property="dropElements" default-value="properties,system-out,system-err"
+   */
+  private String         dropElements = "properties,system-out,system-err";
+
+  /**
+   * Comma separated names of the elements that are cut down to their last
+   * truncatedElementSizeKb instead of being removed, eg "system-out,system-err"
+   * 
+   * @parameter property="truncateElements" default-value=""
+   */
+  private String         truncateElements = "";
+
+  /**
+   * How much of the end of the truncated elements is kept, in KB
+   * 
+   * @parameter property="truncatedElementSizeKb" default-value="64"
+   */
+  private int            truncatedElementSizeKb = 64;
+
+  /**
+   * Pack the cleaned reports into target/surefire-reports.zip, to be archived
+   * instead of the reports directory
+   * 
+   * @parameter property="archiveReports" default-value="false"
+   */
+  private boolean        archiveReports;
+
+  /**
+   * Also pack the captured test output (*-output.txt) when archiving reports
+   * 
+   * @parameter property="archiveReportOutputs" default-value="false"
+   */
+  private boolean        archiveReportOutputs;
   
   public void setProject(MavenProject project) {
     this.project = project;
   }
 
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  public void setDropElements(String dropElements) {
+    this.dropElements = dropElements;
+  }
+
+  public void setTruncateElements(String truncateElements) {
+    this.truncateElements = truncateElements;
+  }
+
+  public void setTruncatedElementSizeKb(int truncatedElementSizeKb) {
+    this.truncatedElementSizeKb = truncatedElementSizeKb;
+  }
+
+  public void setArchiveReports(boolean archiveReports) {
+    this.archiveReports = archiveReports;
+  }
+
+  public void setArchiveReportOutputs(boolean archiveReportOutputs) {
+    this.archiveReportOutputs = archiveReportOutputs;
+  }
+
   public void execute() throws MojoExecutionException, MojoFailureException {
+    if (truncatedElementSizeKb < 1 && !split(truncateElements).isEmpty()) {
+      throw new MojoExecutionException("truncatedElementSizeKb must be positive: " + truncatedElementSizeKb);
+    }
+
     File sureFireReportDir = new File(project.getBuild().getDirectory(),
         "surefire-reports");
     if (!sureFireReportDir.isDirectory()) {
       getLog().debug("surefire-reports folder was not found");
     } else {
 
-      JUnitReportCleaner cleaner = new JUnitReportCleaner(getLog());
+      JUnitReportCleaner cleaner = newCleaner();
 
       File[] reports = sureFireReportDir.listFiles(new FilenameFilter() {
         public boolean accept(File dir, String name) {
@@ -53,23 +161,207 @@ public class FixJUnitReportMojo extends AbstractMojo {
         getLog().info("No empty junit reports were found");
       }
 
-      for (File report : reports) {
-        String className = cleaner.getClassname(report.getName());
+      CleanedReportIndex index = incremental ? CleanedReportIndex.load(sureFireReportDir,
+          cleaner.getConfiguration(), getLog()) : null;
 
+      ConcurrentMap<String, ReportSummary> summaries = new ConcurrentHashMap<String, ReportSummary>();
+      List<File> xmlReports = new ArrayList<File>();
+      List<File> txtReports = new ArrayList<File>();
+      int unchanged = 0;
+      for (File report : reports) {
         // skip non junit report
+        String className = cleaner.getClassname(report.getName());
         if (className == null)
           continue;
 
         if (report.getName().endsWith(".xml")) {
-          cleaner.cleanReport(report);
-        } else if (report.getName().endsWith(".txt")) {
-          File xmlReport = new File(report.getParentFile(), "TEST-" + className
-              + ".xml");
-          if (!xmlReport.exists() || xmlReport.length() == 0L) {
-            cleaner.createDefaultReport(xmlReport, className);
+          ReportSummary summary = index != null ? index.getCleanSummary(report) : null;
+          if (summary != null) {
+            summaries.put(className, summary);
+            unchanged++;
+          } else {
+            xmlReports.add(report);
           }
+        } else if (report.getName().endsWith(".txt") && !report.getName().endsWith("-output.txt")) {
+          // captured test output isn't a test summary
+          txtReports.add(report);
         }
       }
+
+      long start = System.currentTimeMillis();
+      cleanReports(xmlReports, summaries, index);
+
+      // only look for missing xml reports once all of them have been cleaned
+      Map<String, String> timeoutDumps = null;
+      for (File report : txtReports) {
+        String className = cleaner.getClassname(report.getName());
+        File xmlReport = new File(report.getParentFile(), "TEST-" + className
+            + ".xml");
+        if (!xmlReport.exists() || xmlReport.length() == 0L) {
+          if (timeoutDumps == null) {
+            timeoutDumps = readTimeoutDumps(sureFireReportDir);
+          }
+          ReportSummary summary = cleaner.createDefaultReport(xmlReport, className,
+              findTimeoutDump(timeoutDumps, className));
+          summaries.put(className, summary);
+          if (index != null) {
+            index.markClean(xmlReport, summary);
+          }
+        }
+      }
+
+      if (index != null) {
+        try {
+          index.save();
+        } catch (IOException e) {
+          getLog().warn("Unable to save the index of cleaned junit reports", e);
+        }
+      }
+
+      // sorted so the failures are logged in a stable order whatever thread
+      // cleaned them
+      Map<String, ReportSummary> sorted = new TreeMap<String, ReportSummary>(summaries);
+      try {
+        ReportSummary.write(new File(sureFireReportDir, ReportSummary.FILENAME), sorted.values());
+      } catch (IOException e) {
+        getLog().warn("Unable to write the junit reports summary", e);
+      }
+
+      for (ReportSummary summary : sorted.values()) {
+        if (summary.isSynthesized()) {
+          getLog().info("TEST " + summary.getClassName() + " FAILED.");
+        }
+      }
+      getLog().info("Cleaned " + xmlReports.size() + " junit reports in "
+          + (System.currentTimeMillis() - start) + " ms"
+          + (unchanged > 0 ? ", " + unchanged + " unchanged reports skipped" : ""));
+
+      if (archiveReports) {
+        archive(sureFireReportDir);
+      }
+    }
+  }
+
+  private void archive(File sureFireReportDir) throws MojoExecutionException {
+    File archive = new File(sureFireReportDir.getParentFile(), sureFireReportDir.getName() + ".zip");
+    long start = System.currentTimeMillis();
+    try {
+      int count = ReportArchive.write(sureFireReportDir, archive, archiveReportOutputs);
+      getLog().info("Archived " + count + " files into " + archive + " (" + (archive.length() / 1024) + " KB) in "
+          + (System.currentTimeMillis() - start) + " ms");
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to archive junit reports into " + archive, e);
+    }
+  }
+
+  /**
+   * @return the content of the dumps the fork watchdog took before timeouts,
+   *         by file name
+   */
+  private Map<String, String> readTimeoutDumps(File reportsDir) {
+    Map<String, String> dumps = new TreeMap<String, String>();
+    File[] files = reportsDir.listFiles((dir, name) -> ForkWatchdog.isDump(name));
+    if (files != null) {
+      for (File file : files) {
+        try {
+          dumps.put(file.getName(), FileUtils.readFileToString(file, Charset.defaultCharset()));
+        } catch (IOException e) {
+          getLog().warn("Unable to read " + file, e);
+        }
+      }
+    }
+    return dumps;
+  }
+
+  /**
+   * @return the dumps of the fork that was running the given test class, as
+   *         told by their stack traces, or the names of all the dumps if none
+   *         of them is
+   */
+  private static String findTimeoutDump(Map<String, String> dumps, String className) {
+    if (dumps.isEmpty()) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> dump : dumps.entrySet()) {
+      String content = dump.getValue();
+      if (content.contains("at " + className + ".") || content.contains("at " + className + "$")) {
+        sb.append(dump.getKey()).append(":\n").append(content);
+      }
+    }
+    if (sb.length() == 0) {
+      sb.append("Dumps of forked JVMs close to their timeout: ").append(String.join(", ", dumps.keySet()));
+    }
+    return sb.toString();
+  }
+
+  private JUnitReportCleaner newCleaner() {
+    JUnitReportCleaner cleaner = new JUnitReportCleaner(getLog());
+    if (dropElements != null) {
+      cleaner.setUnwantedElements(split(dropElements));
+    }
+    Set<String> truncated = split(truncateElements);
+    if (!truncated.isEmpty()) {
+      cleaner.setTruncatedElements(truncated, truncatedElementSizeKb * 1024);
+    }
+    return cleaner;
+  }
+
+  private static Set<String> split(String elements) {
+    Set<String> rv = new HashSet<String>();
+    if (elements == null) {
+      return rv;
+    }
+    for (String element : elements.split(",")) {
+      if (element.trim().length() > 0) {
+        rv.add(element.trim());
+      }
+    }
+    return rv;
+  }
+
+  private static void clean(JUnitReportCleaner cleaner, File report, Map<String, ReportSummary> summaries,
+      CleanedReportIndex index) {
+    ReportSummary summary = cleaner.cleanReport(report);
+    summaries.put(summary.getClassName(), summary);
+    if (index != null) {
+      index.markClean(report, summary);
+    }
+  }
+
+  private void cleanReports(List<File> reports, final Map<String, ReportSummary> summaries,
+      final CleanedReportIndex index)
+      throws MojoExecutionException {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    poolSize = Math.min(poolSize, reports.size());
+    if (poolSize <= 1) {
+      JUnitReportCleaner cleaner = newCleaner();
+      for (File report : reports) {
+        clean(cleaner, report, summaries, index);
+      }
+      return;
+    }
+
+    getLog().debug("Cleaning " + reports.size() + " junit reports using " + poolSize + " threads");
+    // the cleaner keeps parsing state so every worker gets its own
+    final ThreadLocal<JUnitReportCleaner> cleaners = ThreadLocal.withInitial(this::newCleaner);
+    ExecutorService executor = Executors.newFixedThreadPool(poolSize,
+        new ThreadFactoryBuilder().setNameFormat("junit-report-cleaner-%d").setDaemon(true).build());
+    try {
+      List<Future<?>> results = new ArrayList<Future<?>>(reports.size());
+      for (final File report : reports) {
+        results.add(executor.submit(() -> clean(cleaners.get(), report, summaries, index)));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } catch (ExecutionException e) {
+      throw new MojoExecutionException("Failed to clean junit reports", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while cleaning junit reports", e);
+    } finally {
+      executor.shutdownNow();
     }
   }
 }
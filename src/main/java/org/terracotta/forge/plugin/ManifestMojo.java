@@ -5,6 +5,7 @@ package org.terracotta.forge.plugin;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
@@ -50,6 +51,14 @@ public class ManifestMojo extends AbstractMojo {
    */
   protected MavenProject            project;
 
+  /**
+   * The build, the SCM info read by the modules is cached for it
+   * 
+   * @parameter default-value="${session}"
+   * @readonly
+   */
+  protected MavenSession            session;
+
   /**
    * Extra manifest entries
    * 
@@ -198,6 +207,7 @@ public class ManifestMojo extends AbstractMojo {
 
     try {
       getLog().debug("root path " + rootPath);
+      Util.scopeScmInfoCache(session);
       SCMInfo scmInfo = Util.getScmInfo(rootPath, getLog());
       url = scmInfo.url;
       revision = scmInfo.revision;
@@ -96,10 +96,10 @@ public class PackageClusteredEntityMojo extends AbstractArtifactResolvingMojo {
     // convert .class into .clazz under embedded resources
     if (!privateClassSuffix.trim().equals("")) {
       getLog().info("Renaming private classes to use suffix " + privateClassSuffix);
-      Set<String> commonResources = new LinkedHashSet<String>(renameResources(buildDirectory, "common"));
-      Set<String> clientResources = new LinkedHashSet<String>(renameResources(buildDirectory, "client"));
+      Set<String> commonResources = new LinkedHashSet<String>(renameResources(buildDirectory, "common", privateClassSuffix));
+      Set<String> clientResources = new LinkedHashSet<String>(renameResources(buildDirectory, "client", privateClassSuffix));
       clientResources.addAll(commonResources);
-      Set<String> serverResources = new LinkedHashSet<String>(renameResources(buildDirectory, "server"));
+      Set<String> serverResources = new LinkedHashSet<String>(renameResources(buildDirectory, "server", privateClassSuffix));
       serverResources.addAll(commonResources);
 
       writeContentFile(serverEntriesFile, serverResources);
@@ -175,7 +175,7 @@ public class PackageClusteredEntityMojo extends AbstractArtifactResolvingMojo {
     }
   }
 
-  private Set<String> renameResources(final File buildDirectory, final String subDir) {
+  static Set<String> renameResources(final File buildDirectory, final String subDir, final String privateClassSuffix) {
     File dir = new File(buildDirectory, subDir);
     if (!dir.isDirectory()) return Collections.emptySet();
     Set<String> renamed = new LinkedHashSet<String>();
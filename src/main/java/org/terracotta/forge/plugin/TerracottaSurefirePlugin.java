@@ -4,11 +4,19 @@
  */
 package org.terracotta.forge.plugin;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.surefire.AbstractSurefireMojo;
 import org.apache.maven.plugin.surefire.SurefireHelper;
 import org.apache.maven.plugin.surefire.SurefirePlugin;
+import org.apache.maven.plugin.surefire.extensions.SurefireStatelessTestsetInfoReporter;
 import org.apache.maven.plugin.surefire.log.PluginConsoleLogger;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -18,12 +26,26 @@ import org.apache.maven.surefire.api.suite.RunResult;
 import org.apache.maven.surefire.booter.SurefireBooterForkException;
 import org.codehaus.plexus.logging.Logger;
 import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.io.SAXReader;
+import org.terracotta.forge.plugin.util.AffectedTests;
+import org.terracotta.forge.plugin.util.ForkWatchdog;
+import org.terracotta.forge.plugin.util.PoundRunner;
+import org.terracotta.forge.plugin.util.PoundSchedule;
+import org.terracotta.forge.plugin.util.PoundStatistics;
+import org.terracotta.forge.plugin.util.ProgressReporter;
+import org.terracotta.forge.plugin.util.ReportSummary;
+import org.terracotta.forge.plugin.util.SAXParserPool;
+import org.terracotta.forge.plugin.util.TestCategoryIndex;
+import org.terracotta.forge.plugin.util.TestHistory;
+import org.terracotta.forge.plugin.util.TestProgress;
+import org.terracotta.forge.plugin.util.TestShards;
 import org.terracotta.forge.plugin.util.Util;
+import org.xml.sax.SAXException;
 
 import javax.mail.Authenticator;
 import javax.mail.Message;
@@ -32,15 +54,41 @@ import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import javax.xml.parsers.SAXParser;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Adds some functionality to surefire:
@@ -53,12 +101,167 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
   @Parameter(property = "cleanJunitReports", defaultValue = "true")
   private boolean cleanJunitReports;
 
+  /**
+   * Number of threads used to clean junit reports, defaults to the number of available processors
+   */
+  @Parameter(property = "reportCleanerThreads", defaultValue = "0")
+  private int     reportCleanerThreads;
+
+  /**
+   * Only clean junit reports that changed since they were last cleaned
+   */
+  @Parameter(property = "incrementalReportCleaning", defaultValue = "true")
+  private boolean incrementalReportCleaning;
+
+  /**
+   * Comma separated names of the elements removed from junit reports
+   */
+  @Parameter(property = "dropElements", defaultValue = "properties,system-out,system-err")
+  private String  dropElements;
+
+  /**
+   * Comma separated names of the junit report elements that are cut down to their last
+   * truncatedElementSizeKb instead of being removed, eg "system-out,system-err"
+   */
+  @Parameter(property = "truncateElements", defaultValue = "")
+  private String  truncateElements;
+
+  @Parameter(property = "truncatedElementSizeKb", defaultValue = "64")
+  private int     truncatedElementSizeKb;
+
+  /**
+   * Pack the cleaned junit reports into target/surefire-reports.zip
+   */
+  @Parameter(property = "archiveReports", defaultValue = "false")
+  private boolean archiveReports;
+
+  /**
+   * Also pack the captured test output (*-output.txt) when archiving junit reports
+   */
+  @Parameter(property = "archiveReportOutputs", defaultValue = "false")
+  private boolean archiveReportOutputs;
+
   @Parameter(property = "listFile")
   private File    listFile;
 
+  /**
+   * Split the tests into shardCount shards of about the same duration and
+   * only run the shardIndex-th one (0 based). Every CI node must see the same
+   * test classes and the same testDurationsFile to get consistent shards
+   */
+  @Parameter(property = "shardCount", defaultValue = "1")
+  private int     shardCount;
+
+  @Parameter(property = "shardIndex", defaultValue = "0")
+  private int     shardIndex;
+
+  /**
+   * Test durations used for sharding, a test-summary.csv written by the report
+   * cleaning of a previous build, merged from all the shards and shared by
+   * every CI node. Tests missing from it count for the median duration. When
+   * not set, shards are balanced by test class count; when set, it must
+   * exist, as nodes partitioning from different durations would skip or
+   * repeat test classes
+   */
+  @Parameter(property = "testDurationsFile")
+  private File    testDurationsFile;
+
+  /**
+   * Run the tests that failed most recently first (failedfirst) or the
+   * longest ones first (longestfirst), according to testHistoryFile. This
+   * overrides runOrder
+   */
+  @Parameter(property = "testOrder")
+  private String  testOrder;
+
+  /**
+   * Timing and failure history of the test classes, updated from the cleaned
+   * reports after every run when testOrder is set. Point it out of the build
+   * directory, e.g. to a CI cache, for the history to survive clean builds
+   */
+  @Parameter(property = "testHistoryFile", defaultValue = "${project.build.directory}/" + TestHistory.FILENAME)
+  private File    testHistoryFile;
+
+  /**
+   * Number of thread dumps taken from a forked JVM getting close to
+   * forkedProcessTimeoutInSeconds, the last one along with a class histogram.
+   * They are written to timeout-pid&lt;pid&gt;.dump in the reports directory
+   * and attached to the report synthesized for the test that timed out. 0
+   * disables them. Not supported on Windows, where surefire boots its forks
+   * from a new system temp directory
+   */
+  @Parameter(property = "timeoutThreadDumps", defaultValue = "3")
+  private int     timeoutThreadDumps;
+
+  @Parameter(property = "timeoutThreadDumpIntervalSeconds", defaultValue = "30")
+  private int     timeoutThreadDumpIntervalSeconds;
+
+  /**
+   * Rewrite testProgressFile every progressIntervalSeconds while the tests
+   * run, with the test classes started and completed by every fork, the one
+   * it is running and for how long. 0 disables it
+   */
+  @Parameter(property = "progressIntervalSeconds", defaultValue = "0")
+  private int     progressIntervalSeconds;
+
+  @Parameter(property = "testProgressFile", defaultValue = "${project.build.directory}/test-progress.json")
+  private File    testProgressFile;
+
+  /**
+   * Serve the test progress on this local port as well, 0 for any free port.
+   * The progress file is then only written at the end unless
+   * progressIntervalSeconds is set
+   */
+  @Parameter(property = "progressPort")
+  private Integer progressPort;
+
   @Parameter(property = "poundTimes", defaultValue = "1")
   private int     poundTimes;
 
+  /**
+   * Pound for this many minutes, without iteration limit unless poundTimes is
+   * set as well
+   */
+  @Parameter(property = "poundMinutes", defaultValue = "0")
+  private int     poundMinutes;
+
+  /**
+   * Pound until the test fails, without iteration limit unless poundTimes is
+   * set as well
+   */
+  @Parameter(property = "poundUntilFailure", defaultValue = "false")
+  private boolean poundUntilFailure;
+
+  /**
+   * Keep pounding after a failure to measure the failure rate, the build
+   * still fails at the end
+   */
+  @Parameter(property = "poundContinueOnFailure", defaultValue = "false")
+  private boolean poundContinueOnFailure;
+
+  /**
+   * Pound by re-running the test classes inside long lived forked JVMs instead
+   * of going through surefire, and a new JVM, for every iteration. Only JUnit 4
+   * tests are supported, and no surefire report is written
+   */
+  @Parameter(property = "poundReuseForks", defaultValue = "false")
+  private boolean poundReuseForks;
+
+  /**
+   * With poundReuseForks, start a fresh JVM every this many iterations, for
+   * tests that leave static state behind. 0 keeps one JVM per pounding thread,
+   * or per 1000 iterations when pounding for some minutes or until failure
+   */
+  @Parameter(property = "poundIterationsPerFork", defaultValue = "0")
+  private int     poundIterationsPerFork;
+
+  /**
+   * Number of pounding iterations run at the same time, each one in its own
+   * forked JVM with its own reports and working directory under target/pound
+   */
+  @Parameter(property = "poundThreads", defaultValue = "1")
+  private int     poundThreads;
+
   @Parameter(property = "poundEmail", required = false)
   private String  poundEmail;
 
@@ -68,6 +271,36 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
   @Parameter(property = "useReflectionFile", defaultValue = "false")
   private boolean useReflectionFile;
 
+  /**
+   * Only run the tests annotated with @Category, found by reading the compiled
+   * test classes instead of reflections.xml. The result is cached in
+   * target/test-categories.idx and only changed classes are read again
+   */
+  @Parameter(property = "useTestCategoryIndex", defaultValue = "false")
+  private boolean useTestCategoryIndex;
+
+  /**
+   * Only run the test classes that depend, directly or not, on a class that
+   * changed since they last passed. Dependencies are read from the bytecode
+   * of the module's classes and test classes, and kept in affectedTestsFile.
+   * Any other change of the test classpath, resources included, runs all of
+   * them again
+   */
+  @Parameter(property = "affectedTestsOnly", defaultValue = "false")
+  private boolean affectedTestsOnly;
+
+  @Parameter(property = "affectedTestsFile", defaultValue = "${project.build.directory}/" + AffectedTests.FILENAME)
+  private File    affectedTestsFile;
+
+  /**
+   * Include the categorized tests and the tests of listFile by their fully
+   * qualified name (com/acme/FooTest.java) instead of their simple name
+   * (**&#47;FooTest.java), so that same named classes of other packages aren't
+   * run as well. listFile entries without package keep matching by name
+   */
+  @Parameter(property = "preciseTestSelection", defaultValue = "false")
+  private boolean preciseTestSelection;
+
   /**
    * A full toolchain specification block, eg:
    * &lt;jdk&gt;
@@ -82,6 +315,9 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
   @Parameter(alias = "jdk")
   private Map<String, String> toolchainSpec;
 
+  private TestHistory         testHistory;
+  private AffectedTests       affectedTests;
+  private File                runOrderStatisticsFile;
 
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
@@ -117,6 +353,9 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
       }
     }
 
+    // whole seconds, as some file systems don't keep the milliseconds of the
+    // report timestamps
+    long startTime = System.currentTimeMillis() / 1000 * 1000;
     try {
       // recheck should_skip_test maven propperty to decide if tests should be
       // skipped
@@ -130,23 +369,30 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
 
       // pre-scan groups
       File reflectionFile = new File(getProject().getBuild().getDirectory(), "reflections.xml");
-      if (useReflectionFile && reflectionFile.exists()) {
-        List<String> includeList;
+      List<String> categorizedTests = null;
+      File includeSource = null;
+      if (useTestCategoryIndex) {
+        includeSource = new File(getProject().getBuild().getDirectory(), TestCategoryIndex.FILENAME);
+        categorizedTests = getIndexedCategorizedTests(includeSource);
+      } else if (useReflectionFile && reflectionFile.exists()) {
+        includeSource = reflectionFile;
         try {
-          includeList = getCategorizedTests(reflectionFile);
-          if (includeList.size() == 0) {
-            // add some fake classname here to trick surefire into NOT scanning
-            // all tests
-            includeList.add("**/FAKEFAKEFAKE.java");
-          } else {
-            getLog().info("Including these tests found in " + reflectionFile + " file");
-            getLog().info(includeList.toString());
-          }
-          this.setIncludes(includeList);
+          categorizedTests = getCategorizedTests(reflectionFile);
         } catch (DocumentException e) {
           throw new MojoExecutionException(e.getMessage());
         }
       }
+      if (categorizedTests != null) {
+        if (categorizedTests.size() == 0) {
+          // add some fake classname here to trick surefire into NOT scanning
+          // all tests
+          categorizedTests.add("**/FAKEFAKEFAKE.java");
+        } else {
+          getLog().info("Including these tests found in " + includeSource + " file");
+          getLog().info(categorizedTests.toString());
+        }
+        this.setIncludes(categorizedTests);
+      }
 
       // handle listFile
       if (listFile != null) {
@@ -165,10 +411,7 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
             if (test.length() == 0 || test.startsWith("#")) {
               continue;
             }
-            if (!test.endsWith(".java")) {
-              test += ".java";
-            }
-            includeList.add("**/" + test);
+            includeList.add(toListFileInclude(test));
           }
           getLog().info("Tests to run: " + includeList);
           this.setIncludes(includeList);
@@ -179,37 +422,38 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
         }
       }
 
-      if (poundTimes > 1) {
+      if (affectedTestsOnly) {
+        if (this.getTest() != null) {
+          getLog().warn("-Dtest is set, ignoring affectedTestsOnly");
+        } else {
+          selectAffectedTests();
+        }
+      }
+
+      if (shardCount > 1) {
+        if (this.getTest() != null) {
+          getLog().warn("-Dtest is set, ignoring shardCount");
+        } else {
+          selectShard();
+        }
+      }
+
+      if (isPounding()) {
         if (this.getTest() == null) {
           getLog().error("poundTimes was set but -Dtest isn't");
           throw new MojoFailureException("poundTimes was set but -Dtest isn't");
-        } else {
-          for (int i = 1; i <= poundTimes; i++) {
-            getLog().info("* POUNDING ITERATION: " + i);
-            try {
-              super.execute();
-            } catch (Exception e) {
-              getLog().error("Test failed after iteration #" + i);
-              poundAlertIfNeeded("Pounding finished: " + this.getTest() + " failed", "Test " + this.getTest()
-                                                                                     + " failed after iteration #" + i);
-              if (e instanceof MojoExecutionException) {
-                throw (MojoExecutionException) e;
-              } else if (e instanceof MojoFailureException) {
-                throw (MojoFailureException) e;
-              } else {
-                throw new MojoExecutionException("Failed", e);
-              }
-            }
-          }
         }
+        int pounded = pound();
         // done pounding, exit
-        getLog().info("*** Pounded " + poundTimes + " times! Test passed.");
-        poundAlertIfNeeded("Pounding finished: " + this.getTest() + " passed", "Pounded " + poundTimes
+        getLog().info("*** Pounded " + pounded + " times! Test passed.");
+        poundAlertIfNeeded("Pounding finished: " + this.getTest() + " passed", "Pounded " + pounded
                                                                                + " times! Test " + this.getTest()
                                                                                + " passed");
       } else {
-        // invoke surefire plugin normally
-        super.execute();
+        if (testOrder != null) {
+          orderTests();
+        }
+        runTests();
       }
 
     } catch (MojoExecutionException e) {
@@ -229,11 +473,615 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
         FixJUnitReportMojo fixUnitReportMojo = new FixJUnitReportMojo();
         fixUnitReportMojo.setPluginContext(getPluginContext());
         fixUnitReportMojo.setProject(getProject());
+        fixUnitReportMojo.setThreads(reportCleanerThreads);
+        fixUnitReportMojo.setIncremental(incrementalReportCleaning);
+        fixUnitReportMojo.setDropElements(dropElements);
+        fixUnitReportMojo.setTruncateElements(truncateElements);
+        fixUnitReportMojo.setTruncatedElementSizeKb(truncatedElementSizeKb);
+        fixUnitReportMojo.setArchiveReports(archiveReports);
+        fixUnitReportMojo.setArchiveReportOutputs(archiveReportOutputs);
         fixUnitReportMojo.execute();
       }
+      if (testHistory != null || affectedTests != null) {
+        recordPassedTests(startTime);
+      }
+      if (runOrderStatisticsFile != null && runOrderStatisticsFile.exists() && !runOrderStatisticsFile.delete()) {
+        getLog().warn("Unable to delete " + runOrderStatisticsFile);
+      }
     }
   }
 
+  /**
+   * Invokes surefire normally, with the fork watchdog and the progress
+   * reporting around it
+   */
+  private void runTests() throws MojoExecutionException, MojoFailureException {
+    ForkWatchdog watchdog = null;
+    if (timeoutThreadDumps > 0 && getForkedProcessTimeoutInSeconds() > 0) {
+      if (SystemUtils.IS_OS_WINDOWS) {
+        getLog().debug("No thread dumps of the forks close to their timeout on Windows");
+      } else {
+        // where surefire boots the forks from, outside of Windows
+        File bootDir = new File(getProjectBuildDirectory(), getTempDir());
+        try {
+          bootDir = bootDir.getCanonicalFile();
+        } catch (IOException e) {
+          getLog().debug("Unable to canonicalize " + bootDir, e);
+        }
+        watchdog = new ForkWatchdog(getReportsDirectory(), bootDir, getForkedProcessTimeoutInSeconds(),
+                                    timeoutThreadDumps, timeoutThreadDumpIntervalSeconds, getLog());
+        watchdog.start();
+      }
+    }
+    TestProgress progress = null;
+    Field reporterField = null;
+    SurefireStatelessTestsetInfoReporter reporter = null;
+    try {
+      if (progressIntervalSeconds > 0 || progressPort != null) {
+        // surefire has no setter for its reporters, they come from the pom
+        reporterField = AbstractSurefireMojo.class.getDeclaredField("statelessTestsetInfoReporter");
+        reporterField.setAccessible(true);
+        reporter = (SurefireStatelessTestsetInfoReporter) reporterField.get(this);
+        progress = new TestProgress();
+        reporterField.set(this, new ProgressReporter(reporter != null ? reporter
+            : new SurefireStatelessTestsetInfoReporter(), progress));
+        progress.start(testProgressFile, progressIntervalSeconds, progressPort, getLog());
+      }
+      super.execute();
+    } catch (ReflectiveOperationException | IOException e) {
+      throw new MojoExecutionException("Unable to report the test progress", e);
+    } finally {
+      if (watchdog != null) {
+        watchdog.close();
+      }
+      if (progress != null) {
+        progress.close();
+        try {
+          reporterField.set(this, reporter);
+        } catch (IllegalAccessException e) {
+          throw new IllegalStateException(e);
+        }
+        try {
+          progress.write(testProgressFile);
+        } catch (IOException e) {
+          getLog().warn("Unable to write " + testProgressFile, e);
+        }
+      }
+    }
+  }
+
+  private void poundFailed(int iteration, int failed, int iterations, Exception e) throws MojoExecutionException,
+      MojoFailureException {
+    String failures = failed > 1 ? ", " + failed + " of " + iterations + " iterations failed" : "";
+    getLog().error("Test failed after iteration #" + iteration + failures);
+    poundAlertIfNeeded("Pounding finished: " + this.getTest() + " failed", "Test " + this.getTest()
+                                                                           + " failed after iteration #" + iteration
+                                                                           + failures);
+    if (e instanceof MojoExecutionException) {
+      throw (MojoExecutionException) e;
+    } else if (e instanceof MojoFailureException) {
+      throw (MojoFailureException) e;
+    } else {
+      throw new MojoExecutionException("Failed", e);
+    }
+  }
+
+  /**
+   * Restricts the includes to the test classes of shard shardIndex
+   */
+  private void selectShard() throws MojoExecutionException {
+    if (shardIndex < 0 || shardIndex >= shardCount) {
+      throw new MojoExecutionException("shardIndex must be between 0 and " + (shardCount - 1) + ": " + shardIndex);
+    }
+    Map<String, Double> durations = new HashMap<String, Double>();
+    if (testDurationsFile == null) {
+      getLog().info("No testDurationsFile, shards are balanced by test class count");
+    } else if (!testDurationsFile.isFile()) {
+      throw new MojoExecutionException("testDurationsFile " + testDurationsFile + " doesn't exist");
+    } else {
+      try {
+        for (ReportSummary summary : ReportSummary.read(testDurationsFile)) {
+          durations.put(summary.getClassName(), summary.getTime());
+        }
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to read test durations from " + testDurationsFile, e);
+      }
+    }
+
+    List<String> classes = findTestClasses();
+    int total = classes.size();
+    TestShards shards = TestShards.partition(classes, durations, shardCount);
+
+    List<String> shardIncludes = new ArrayList<String>();
+    for (String className : shards.getShard(shardIndex)) {
+      shardIncludes.add(className.replace('.', '/') + ".java");
+    }
+    getLog().info("Running shard " + shardIndex + " of " + shardCount + ": " + shardIncludes.size() + " of " + total
+                  + " test classes, estimated " + Math.round(shards.getDuration(shardIndex)) + " s");
+    if (shardIncludes.isEmpty()) {
+      // add some fake classname here to trick surefire into NOT scanning
+      // all tests
+      shardIncludes.add("**/FAKEFAKEFAKE.java");
+    }
+    this.setIncludes(shardIncludes);
+  }
+
+  /**
+   * Switches surefire to the run order matching testOrder. The statistics it
+   * orders the tests by are written from the test history, see
+   * hasExecutedBefore, and deleted after the run as surefire updates them:
+   * the test history is their only source
+   */
+  private void orderTests() throws MojoExecutionException {
+    String runOrder;
+    if ("failedfirst".equalsIgnoreCase(testOrder)) {
+      runOrder = "failedfirst";
+    } else if ("longestfirst".equalsIgnoreCase(testOrder)) {
+      runOrder = "balanced";
+    } else {
+      throw new MojoExecutionException("testOrder must be failedfirst or longestfirst: " + testOrder);
+    }
+    try {
+      testHistory = TestHistory.read(testHistoryFile);
+    } catch (IOException e) {
+      getLog().warn("Unable to read the test history " + testHistoryFile + ", starting a new one", e);
+      testHistory = new TestHistory();
+    }
+    if (testHistory.size() == 0) {
+      getLog().info("No test history in " + testHistoryFile + " yet, tests run in the default order");
+    } else {
+      getLog().info("Running " + testOrder + " from the history of " + testHistory.size() + " test classes");
+    }
+    setRunOrder(runOrder);
+  }
+
+  /**
+   * Surefire reads its run order statistics from a file named after the
+   * checksum of its configuration, which is final once it checked whether
+   * that configuration ran before, see hasExecutedBefore
+   */
+  private void writeRunOrderStatistics() {
+    try {
+      // surefire has no parameter for the file
+      Method getConfigChecksum = AbstractSurefireMojo.class.getDeclaredMethod("getConfigChecksum");
+      getConfigChecksum.setAccessible(true);
+      Method getStatisticsFile = AbstractSurefireMojo.class.getDeclaredMethod("getStatisticsFile", String.class);
+      getStatisticsFile.setAccessible(true);
+      runOrderStatisticsFile = (File) getStatisticsFile.invoke(this, getConfigChecksum.invoke(this));
+      if (testHistory.size() > 0) {
+        testHistory.writeRunOrderStatistics(runOrderStatisticsFile);
+      }
+    } catch (ReflectiveOperationException | IOException e) {
+      getLog().warn("Unable to write the run order statistics, tests run in the default order", e);
+    }
+  }
+
+  /**
+   * Records the reports written since the given time in the test history,
+   * and the test classes that passed in the affected tests index
+   */
+  private void recordPassedTests(long since) {
+    File summaryFile = new File(getReportsDirectory(), ReportSummary.FILENAME);
+    if (!summaryFile.isFile()) {
+      getLog().warn("No " + summaryFile + ", testOrder and affectedTestsOnly need cleanJunitReports");
+      return;
+    }
+    List<ReportSummary> summaries = new ArrayList<ReportSummary>();
+    try {
+      for (ReportSummary summary : ReportSummary.read(summaryFile)) {
+        // reports of earlier runs are still around, with their old timestamp
+        File report = new File(getReportsDirectory(), "TEST-" + summary.getClassName() + ".xml");
+        if (report.lastModified() >= since) {
+          summaries.add(summary);
+        }
+      }
+    } catch (IOException e) {
+      getLog().warn("Unable to read " + summaryFile, e);
+      return;
+    }
+    if (testHistory != null) {
+      for (ReportSummary summary : summaries) {
+        testHistory.record(summary);
+      }
+      try {
+        testHistory.write(testHistoryFile);
+        getLog().debug("Recorded " + summaries.size() + " test classes in " + testHistoryFile);
+      } catch (IOException e) {
+        getLog().warn("Unable to update the test history " + testHistoryFile, e);
+      }
+    }
+    if (affectedTests != null) {
+      for (ReportSummary summary : summaries) {
+        if (!summary.isFailed()) {
+          affectedTests.markPassed(summary.getClassName());
+        }
+      }
+      try {
+        affectedTests.save(affectedTestsFile);
+      } catch (IOException e) {
+        getLog().warn("Unable to update " + affectedTestsFile, e);
+      }
+    }
+  }
+
+  /**
+   * Restricts the includes to the test classes affected by the changes made
+   * since they last passed
+   */
+  private void selectAffectedTests() throws MojoExecutionException {
+    List<String> classes = findTestClasses();
+    List<String> affected;
+    try {
+      List<File> classpath = new ArrayList<File>();
+      for (String element : getProject().getTestClasspathElements()) {
+        classpath.add(new File(element));
+      }
+      affectedTests = AffectedTests.update(affectedTestsFile,
+          Arrays.asList(getMainBuildPath(), getTestClassesDirectory()), classpath, getLog());
+      affected = affectedTests.getAffected(classes);
+    } catch (IOException | DependencyResolutionRequiredException e) {
+      throw new MojoExecutionException("Unable to tell the tests affected by changes", e);
+    }
+    getLog().info(affected.size() + " of " + classes.size() + " test classes affected by changes since they last passed"
+                  + " (" + affectedTests.getScanned() + " changed files read)");
+
+    List<String> affectedIncludes = new ArrayList<String>();
+    for (String className : affected) {
+      affectedIncludes.add(className.replace('.', '/') + ".java");
+    }
+    if (affectedIncludes.isEmpty()) {
+      // add some fake classname here to trick surefire into NOT scanning
+      // all tests
+      affectedIncludes.add("**/FAKEFAKEFAKE.java");
+    }
+    this.setIncludes(affectedIncludes);
+  }
+
+  /**
+   * @return the test classes selected by the includes and excludes, or by the
+   *         surefire default ones
+   */
+  private List<String> findTestClasses() throws MojoExecutionException {
+    List<String> includes = getIncludes() != null && !getIncludes().isEmpty() ? getIncludes()
+        : Arrays.asList("**/Test*.java", "**/*Test.java", "**/*Tests.java", "**/*TestCase.java");
+    List<String> excludes = getExcludes() != null && !getExcludes().isEmpty() ? getExcludes()
+        : Arrays.asList("**/*$*");
+    try {
+      return TestShards.findTestClasses(getTestClassesDirectory(), includes, excludes);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to list the test classes of " + getTestClassesDirectory(), e);
+    }
+  }
+
+  private boolean isPounding() {
+    return poundTimes > 1 || poundMinutes > 0 || poundUntilFailure;
+  }
+
+  /**
+   * Runs the pounding iterations until poundTimes, poundMinutes or a failure
+   * stops it, and writes their statistics to target/pound-summary.properties.
+   *
+   * Iterations run poundThreads at a time. When concurrent, every iteration
+   * is run by a copy of this mojo using target/pound/iteration-N as working
+   * directory and target/pound/iteration-N/surefire-reports as reports
+   * directory, with its own surefire temp directory. The reports of the first
+   * failed iteration are then copied to the reports directory.
+   *
+   * @return the number of iterations run, if all passed
+   */
+  private int pound() throws MojoExecutionException, MojoFailureException {
+    final int maxIterations = poundTimes > 1 ? poundTimes : Integer.MAX_VALUE;
+    final long start = System.currentTimeMillis();
+    final long deadline = poundMinutes > 0 ? start + TimeUnit.MINUTES.toMillis(poundMinutes) : Long.MAX_VALUE;
+    final File poundDir = new File(getProject().getBuild().getDirectory(), "pound");
+    final ConcurrentSkipListMap<Integer, Exception> failures = new ConcurrentSkipListMap<Integer, Exception>();
+    final PoundStatistics statistics = new PoundStatistics();
+    final boolean concurrent = poundThreads > 1 && maxIterations > 1;
+    int threads = concurrent ? Math.min(poundThreads, maxIterations) : 1;
+    getLog().info("* POUNDING" + (maxIterations < Integer.MAX_VALUE ? " " + maxIterations + " ITERATIONS" : "")
+                  + (poundMinutes > 0 ? " FOR " + poundMinutes + " MINUTES" : "")
+                  + (poundUntilFailure ? " UNTIL FAILURE" : "") + " USING " + threads + " THREADS");
+
+    final List<String> tests = poundReuseForks ? findTestsToPound() : null;
+    // without reused forks, every iteration is a surefire run of its own
+    final PoundSchedule schedule = new PoundSchedule(maxIterations, threads,
+        poundReuseForks ? poundIterationsPerFork : 1);
+
+    Callable<Void> worker = poundReuseForks ? () -> {
+      int first;
+      while ((poundContinueOnFailure || failures.isEmpty()) && System.currentTimeMillis() < deadline
+             && (first = schedule.nextBatch()) > 0) {
+        poundInFork(first, schedule.batchSize(first), deadline, concurrent, tests, statistics, failures);
+      }
+      return null;
+    } : () -> {
+      int i;
+      while ((poundContinueOnFailure || failures.isEmpty()) && System.currentTimeMillis() < deadline
+             && (i = schedule.nextBatch()) > 0) {
+        File iterationDir = new File(poundDir, "iteration-" + i);
+        getLog().info("* POUNDING ITERATION: " + i);
+        long iterationStart = System.nanoTime();
+        try {
+          if (concurrent) {
+            newIteration(i, iterationDir).runSurefire();
+            FileUtils.deleteQuietly(iterationDir);
+          } else {
+            runSurefire();
+          }
+          statistics.record(i, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - iterationStart), true);
+        } catch (Exception e) {
+          statistics.record(i, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - iterationStart), false);
+          getLog().error("Pounding iteration #" + i + " failed" + (concurrent ? ", reports in " + iterationDir : ""));
+          failures.put(i, e);
+        }
+      }
+      return null;
+    };
+
+    if (concurrent) {
+      ExecutorService executor = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat("pound-%d").setDaemon(true).build());
+      try {
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for (int t = 0; t < threads; t++) {
+          workers.add(executor.submit(worker));
+        }
+        for (Future<Void> result : workers) {
+          result.get();
+        }
+      } catch (ExecutionException e) {
+        throw new MojoExecutionException("Pounding failed", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while pounding", e);
+      } finally {
+        executor.shutdownNow();
+      }
+    } else {
+      try {
+        worker.call();
+      } catch (Exception e) {
+        throw new MojoExecutionException("Pounding failed", e);
+      }
+    }
+
+    getLog().info("* POUNDING STATISTICS: " + statistics);
+    File summary = new File(getProject().getBuild().getDirectory(), "pound-summary.properties");
+    try {
+      statistics.write(summary, getTest(), System.currentTimeMillis() - start);
+    } catch (IOException e) {
+      getLog().warn("Unable to write " + summary, e);
+    }
+
+    if (!failures.isEmpty()) {
+      Map.Entry<Integer, Exception> first = failures.firstEntry();
+      File reports = new File(new File(poundDir, "iteration-" + first.getKey()), "surefire-reports");
+      try {
+        if (concurrent && reports.isDirectory()) {
+          FileUtils.copyDirectory(reports, getReportsDirectory());
+        }
+      } catch (IOException e) {
+        getLog().warn("Unable to copy the reports of iteration #" + first.getKey(), e);
+      }
+      poundFailed(first.getKey(), failures.size(), statistics.getIterations(), first.getValue());
+    }
+    return statistics.getIterations();
+  }
+
+  /**
+   * Runs iterations first to first + count - 1 in one forked JVM, see
+   * {@link PoundRunner}. The output of the JVM goes to
+   * target/pound/iteration-FIRST/output.txt, kept only if an iteration
+   * failed. When concurrent, that directory is the working directory as well.
+   */
+  private void poundInFork(int first, int count, long deadline, boolean concurrent, List<String> tests,
+                           PoundStatistics statistics, Map<Integer, Exception> failures) throws MojoExecutionException {
+    File forkDir = new File(new File(getProject().getBuild().getDirectory(), "pound"), "iteration-" + first);
+    File workingDir = concurrent ? forkDir : getWorkingDirectory() != null ? getWorkingDirectory() : getBasedir();
+    if (!forkDir.isDirectory() && !forkDir.mkdirs()) {
+      throw new MojoExecutionException("Failed to mkdirs " + forkDir);
+    }
+
+    List<String> command = new ArrayList<String>();
+    command.add(getJvm() != null && getJvm().length() > 0 ? getJvm()
+        : new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+    try {
+      if (getArgLine() != null) {
+        command.addAll(Arrays.asList(CommandLineUtils.translateCommandline(getArgLine())));
+      }
+    } catch (Exception e) {
+      throw new MojoExecutionException("Unable to parse argLine " + getArgLine(), e);
+    }
+    if (getSystemPropertyVariables() != null) {
+      for (Map.Entry<String, String> property : getSystemPropertyVariables().entrySet()) {
+        command.add("-D" + property.getKey() + "=" + (property.getValue() != null ? property.getValue() : ""));
+      }
+    }
+    List<String> classpath = new ArrayList<String>();
+    try {
+      classpath.addAll(getProject().getTestClasspathElements());
+    } catch (DependencyResolutionRequiredException e) {
+      throw new MojoExecutionException("Unable to get the test classpath", e);
+    }
+    if (getAdditionalClasspathElements() != null) {
+      classpath.addAll(Arrays.asList(getAdditionalClasspathElements()));
+    }
+    try {
+      classpath.add(new File(PoundRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+          .getAbsolutePath());
+    } catch (URISyntaxException e) {
+      throw new MojoExecutionException("Unable to locate the plugin jar", e);
+    }
+    command.add("-cp");
+    command.add(StringUtils.join(classpath, File.pathSeparator));
+    command.add(PoundRunner.class.getName());
+    command.add(Integer.toString(first));
+    command.add(Integer.toString(count));
+    command.add(Long.toString(deadline == Long.MAX_VALUE ? 0 : deadline));
+    command.add(Boolean.toString(!poundContinueOnFailure));
+    command.addAll(tests);
+
+    getLog().info("* POUNDING ITERATIONS " + first
+                  + (count < Integer.MAX_VALUE ? " TO " + ((long) first + count - 1) : "") + " IN ONE JVM");
+    ProcessBuilder builder = new ProcessBuilder(command).directory(workingDir).redirectErrorStream(true);
+    if (getEnvironmentVariables() != null) {
+      builder.environment().putAll(getEnvironmentVariables());
+    }
+
+    File output = new File(forkDir, "output.txt");
+    AtomicLong lastIteration = new AtomicLong(first - 1);
+    AtomicBoolean failed = new AtomicBoolean();
+    StringBuilder trace = new StringBuilder();
+    try (PrintWriter log = new PrintWriter(new FileWriter(output))) {
+      int exitCode = -1;
+      String reason = null;
+      try {
+        // a failed fork stops by itself, the others are stopped here
+        exitCode = Util.exec(builder, Charset.defaultCharset(), getForkedProcessTimeoutInSeconds(), TimeUnit.SECONDS,
+            line -> {
+              if (line.startsWith(PoundRunner.TRACE_PREFIX)) {
+                trace.append(line.substring(PoundRunner.TRACE_PREFIX.length())).append('\n');
+              } else if (line.startsWith(PoundRunner.ITERATION_PREFIX)) {
+                String[] fields = line.substring(PoundRunner.ITERATION_PREFIX.length()).split(" ");
+                int iteration = Integer.parseInt(fields[0]);
+                boolean passed = "PASSED".equals(fields[1]);
+                statistics.record(iteration, Long.parseLong(fields[2]), passed);
+                lastIteration.set(iteration);
+                if (!passed) {
+                  failed.set(true);
+                  getLog().error("Pounding iteration #" + iteration + " failed, output in " + output + "\n" + trace);
+                  failures.put(iteration, new MojoFailureException("Pounding iteration #" + iteration + " failed:\n"
+                                                                   + trace));
+                }
+                trace.setLength(0);
+              }
+              log.println(line);
+            }, line -> { }, () -> !poundContinueOnFailure && !failed.get() && !failures.isEmpty());
+        reason = "forked JVM exited with code " + exitCode;
+      } catch (TimeoutException e) {
+        reason = "forked JVM timed out after " + getForkedProcessTimeoutInSeconds() + " seconds";
+      } catch (CancellationException e) {
+        getLog().info("* POUNDING STOPPED AT ITERATION " + (lastIteration.get() + 1) + ", ANOTHER ITERATION FAILED");
+        FileUtils.deleteQuietly(forkDir);
+        return;
+      }
+      // a test that exits or crashes the JVM fails the iteration it was in
+      boolean incomplete = lastIteration.get() < (long) first + count - 1 && System.currentTimeMillis() < deadline;
+      if (!failed.get() && (exitCode != 0 || incomplete)) {
+        int iteration = (int) lastIteration.get() + 1;
+        failed.set(true);
+        statistics.record(iteration, 0, false);
+        getLog().error("Pounding iteration #" + iteration + " failed, " + reason + ", output in " + output);
+        failures.put(iteration, new MojoFailureException("Pounding iteration #" + iteration + " failed, " + reason));
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to run " + command, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while pounding", e);
+    }
+    if (!failed.get()) {
+      FileUtils.deleteQuietly(forkDir);
+    }
+  }
+
+  /**
+   * @return the test classes selected by -Dtest, as expected by
+   *         {@link PoundRunner}
+   */
+  private List<String> findTestsToPound() throws MojoExecutionException {
+    List<String> tests = new ArrayList<String>();
+    Collection<File> classFiles = getTestClassesDirectory().isDirectory()
+        ? FileUtils.listFiles(getTestClassesDirectory(), new String[] { "class" }, true)
+        : Collections.<File> emptyList();
+    for (String test : getTest().split(",")) {
+      test = test.trim();
+      if (test.length() == 0) {
+        continue;
+      }
+      String method = null;
+      if (test.contains("#")) {
+        method = test.substring(test.indexOf('#') + 1);
+        test = test.substring(0, test.indexOf('#'));
+      }
+      String pattern = test.replace("/", ".").replaceAll("\\.java$|\\.class$", "").replace(".", "\\.")
+          .replace("**\\.", "(.*\\.)?").replace("*", "[^.]*");
+      boolean found = false;
+      for (File classFile : classFiles) {
+        String path = getTestClassesDirectory().toPath().relativize(classFile.toPath()).toString();
+        String className = path.substring(0, path.length() - ".class".length()).replace(File.separatorChar, '.');
+        if (className.contains("$")) {
+          continue;
+        }
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        if (className.matches(pattern) || simpleName.matches(pattern)) {
+          tests.add(method != null ? className + "#" + method : className);
+          found = true;
+        }
+      }
+      if (!found) {
+        throw new MojoExecutionException("No test class matching " + test + " in " + getTestClassesDirectory());
+      }
+    }
+    return tests;
+  }
+
+  /**
+   * @return a copy of this mojo running in the given directory. Surefire keeps
+   *         state in the mojo while running so concurrent iterations can't
+   *         share it. Collections, properties and arrays, like the system
+   *         properties and environment variables surefire adds to, are copied
+   *         too, the other fields are shared
+   */
+  private TerracottaSurefirePlugin newIteration(int i, File iterationDir) throws MojoExecutionException {
+    TerracottaSurefirePlugin iteration = new TerracottaSurefirePlugin();
+    try {
+      for (Class<?> c = getClass(); c != Object.class; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+            continue;
+          }
+          field.setAccessible(true);
+          // the plugin context is meant to be shared
+          field.set(iteration, c == AbstractMojo.class ? field.get(this)
+              : copyOfMutable(field.get(this), field.getType()));
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new MojoExecutionException("Unable to copy the surefire configuration", e);
+    }
+    iteration.setWorkingDirectory(iterationDir);
+    iteration.setReportsDirectory(new File(iterationDir, "surefire-reports"));
+    // surefire deletes its booter jars when done, forks must not share them
+    iteration.setTempDir(getTempDir() + "-pound-" + i);
+    return iteration;
+  }
+
+  /**
+   * @return a copy of value if it's a collection, properties or an array the
+   *         field type can hold, value itself otherwise
+   */
+  private static Object copyOfMutable(Object value, Class<?> type) {
+    if (value instanceof Properties) {
+      Properties copy = new Properties();
+      copy.putAll((Properties) value);
+      return copy;
+    } else if (value instanceof Map && type.isAssignableFrom(LinkedHashMap.class)) {
+      return new LinkedHashMap<Object, Object>((Map<?, ?>) value);
+    } else if (value instanceof List && type.isAssignableFrom(ArrayList.class)) {
+      return new ArrayList<Object>((List<?>) value);
+    } else if (value instanceof Set && type.isAssignableFrom(LinkedHashSet.class)) {
+      return new LinkedHashSet<Object>((Set<?>) value);
+    } else if (value instanceof Object[]) {
+      return ((Object[]) value).clone();
+    }
+    return value;
+  }
+
+  private void runSurefire() throws MojoExecutionException, MojoFailureException {
+    super.execute();
+  }
+
   private void poundAlertIfNeeded(String subject, String text) throws MojoExecutionException {
     if (poundEmail == null) return;
     try {
@@ -284,12 +1132,67 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
   @Override
   protected boolean hasExecutedBefore() {
     // if we're pounding test, we have to lie so that the test can be run again
-    if (poundTimes > 1) return false;
-    return super.hasExecutedBefore();
+    if (isPounding()) return false;
+    boolean executedBefore = super.hasExecutedBefore();
+    if (!executedBefore && testHistory != null) {
+      writeRunOrderStatistics();
+    }
+    return executedBefore;
+  }
+
+  /**
+   * @return the surefire include pattern of the given test class
+   */
+  private String toInclude(String className) {
+    if (preciseTestSelection) {
+      return className.replace('.', '/') + ".java";
+    }
+    return "**/" + className.substring(className.lastIndexOf(".") + 1) + ".java";
+  }
+
+  /**
+   * @return the surefire include pattern of a listFile entry, either a class
+   *         name, simple or fully qualified, or a path
+   */
+  private String toListFileInclude(String test) {
+    if (test.endsWith(".java")) {
+      test = test.substring(0, test.length() - ".java".length());
+    }
+    if (preciseTestSelection && test.contains("/")) {
+      return test + ".java";
+    } else if (preciseTestSelection && test.contains(".")) {
+      return toInclude(test);
+    }
+    return "**/" + test + ".java";
+  }
+
+  private List<String> getIndexedCategorizedTests(File indexFile) throws MojoExecutionException {
+    long start = System.currentTimeMillis();
+    TestCategoryIndex index;
+    try {
+      index = TestCategoryIndex.update(getTestClassesDirectory(), indexFile, getLog());
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to index the test categories of " + getTestClassesDirectory(), e);
+    }
+    getLog().debug("Indexed the categories of " + index.size() + " test classes (" + index.getScanned()
+                   + " read) in " + (System.currentTimeMillis() - start) + " ms");
+    List<String> result = new ArrayList<String>();
+    for (String className : index.getCategorizedClasses()) {
+      result.add(toInclude(className));
+    }
+    return result;
   }
 
   private List<String> getCategorizedTests(File reflectionFile) throws DocumentException {
-    Document doc = new SAXReader().read(reflectionFile);
+    Document doc;
+    SAXParser parser = SAXParserPool.acquire();
+    try {
+      doc = new SAXReader(parser.getXMLReader()).read(reflectionFile);
+    } catch (SAXException e) {
+      throw new DocumentException(e.getMessage(), e);
+    } finally {
+      SAXParserPool.release(parser);
+    }
     List<Node> list = doc.selectNodes("//Reflections/TypeAnnotationsScanner/entry");
     List<String> result = new ArrayList<String>();
     for (Node node : list) {
@@ -300,7 +1203,7 @@ public class TerracottaSurefirePlugin extends SurefirePlugin {
         for (Iterator it = values.elements().iterator(); it.hasNext();) {
           Element value = (Element) it.next();
           String className = value.getText();
-          result.add("**/" + className.substring(className.lastIndexOf(".") + 1) + ".java");
+          result.add(toInclude(className));
         }
       }
     }
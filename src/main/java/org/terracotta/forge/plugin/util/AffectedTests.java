@@ -0,0 +1,331 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tells which test classes may be affected by the changes made since they
+ * last passed.
+ *
+ * Every class file of the module's main and test classes directories is
+ * hashed, and the classes it references are read from its constant pool,
+ * descriptors and signatures included. A test class is affected when the
+ * hash of one of the classes it reaches, directly or not, changed since it
+ * last passed. A change of any other file of those directories, or of the
+ * rest of the test classpath, affects all the test classes, as there is no
+ * telling who uses it.
+ *
+ * Class files are only read again when their size or modification time
+ * changed. The index is kept in a tab separated file, with the state of
+ * every test class when it last passed.
+ */
+public class AffectedTests {
+  public static final String  FILENAME   = "affected-tests.idx";
+  private static final String HEADER     = "# affected tests v1";
+  private static final Pattern DESCRIPTOR = Pattern.compile("L([\\w/$]+)[;<]");
+
+  // class files by path relative to their classes directory, other files
+  // by that path prefixed with the index of their directory
+  private final Map<String, Entry>  entries    = new TreeMap<String, Entry>();
+  private final Map<String, String> passed     = new TreeMap<String, String>();
+  private final Map<String, String> states     = new HashMap<String, String>();
+  private String                    environment;
+  private int                       scanned;
+
+  private AffectedTests() {
+    //
+  }
+
+  /**
+   * Brings the index of the given classes directories up to date, reading
+   * only the files that changed since
+   *
+   * @param classpath the test classpath, the given classes directories
+   *          excluded or not
+   */
+  public static AffectedTests update(File cacheFile, List<File> classesDirs, Collection<File> classpath, Log log)
+      throws IOException {
+    AffectedTests index = new AffectedTests();
+    Map<String, Entry> cached = index.load(cacheFile, log);
+    MessageDigest environment = sha1();
+    for (int i = 0; i < classesDirs.size(); i++) {
+      File classesDir = classesDirs.get(i);
+      if (!classesDir.isDirectory()) {
+        continue;
+      }
+      Path root = classesDir.toPath();
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(root)) {
+        files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+      }
+      for (Path path : files) {
+        String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+        boolean isClass = name.endsWith(".class");
+        // classes are looked up by name, resources may be in both directories
+        String key = isClass ? name : i + ":" + name;
+        File file = path.toFile();
+        Entry entry = cached.get(key);
+        if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) {
+          entry = read(file, isClass);
+          index.scanned++;
+        }
+        index.entries.put(key, entry);
+        if (!isClass) {
+          update(environment, key + "=" + entry.hash);
+        }
+      }
+    }
+    Set<String> ownDirs = new HashSet<String>();
+    for (File classesDir : classesDirs) {
+      ownDirs.add(classesDir.getAbsolutePath());
+    }
+    for (File element : classpath) {
+      if (!ownDirs.contains(element.getAbsolutePath())) {
+        fingerprint(environment, element);
+      }
+    }
+    index.environment = hex(environment.digest());
+    index.save(cacheFile);
+    return index;
+  }
+
+  /**
+   * @return the number of files read during the last update
+   */
+  public int getScanned() {
+    return scanned;
+  }
+
+  /**
+   * @return the given test classes affected by the changes made since they
+   *         last passed, in the same order
+   */
+  public List<String> getAffected(Collection<String> testClasses) {
+    List<String> affected = new ArrayList<String>();
+    for (String testClass : testClasses) {
+      String state = getState(testClass);
+      if (!state.equals(passed.get(testClass))) {
+        affected.add(testClass);
+      }
+    }
+    return affected;
+  }
+
+  /**
+   * Records that the given test class passed with the classes of the last
+   * update. Call save afterwards
+   */
+  public void markPassed(String testClass) {
+    passed.put(testClass, getState(testClass));
+  }
+
+  /**
+   * @return the hash of the classes reached from the given test class, and of
+   *         everything else it may depend on
+   */
+  private String getState(String testClass) {
+    String state = states.get(testClass);
+    if (state != null) {
+      return state;
+    }
+    Set<String> reached = new TreeSet<String>();
+    Deque<String> toVisit = new ArrayDeque<String>();
+    toVisit.add(testClass.replace('.', '/'));
+    while (!toVisit.isEmpty()) {
+      String className = toVisit.poll();
+      Entry entry = entries.get(className + ".class");
+      if (entry == null || !reached.add(className)) {
+        // not one of the module's classes, or already visited
+        continue;
+      }
+      toVisit.addAll(entry.references);
+    }
+    MessageDigest digest = sha1();
+    update(digest, environment);
+    for (String className : reached) {
+      update(digest, className + "=" + entries.get(className + ".class").hash);
+    }
+    state = hex(digest.digest());
+    states.put(testClass, state);
+    return state;
+  }
+
+  private static Entry read(File file, boolean isClass) throws IOException {
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    List<String> references = Collections.emptyList();
+    if (isClass) {
+      ConstPool constPool = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes))).getConstPool();
+      Set<String> names = new TreeSet<String>();
+      for (String name : constPool.getClassNames()) {
+        // arrays are listed by their descriptor
+        Matcher matcher = DESCRIPTOR.matcher(name);
+        names.add(matcher.find() ? matcher.group(1) : name);
+      }
+      // types only found in descriptors, signatures and annotations
+      for (int i = 1; i < constPool.getSize(); i++) {
+        if (constPool.getTag(i) == ConstPool.CONST_Utf8) {
+          Matcher matcher = DESCRIPTOR.matcher(constPool.getUtf8Info(i));
+          while (matcher.find()) {
+            names.add(matcher.group(1));
+          }
+        }
+      }
+      references = new ArrayList<String>(names);
+    }
+    MessageDigest digest = sha1();
+    digest.update(bytes);
+    return new Entry(file.length(), file.lastModified(), hex(digest.digest()), references);
+  }
+
+  private static void fingerprint(MessageDigest digest, File element) throws IOException {
+    if (element.isDirectory()) {
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(element.toPath())) {
+        files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+      }
+      for (Path path : files) {
+        File file = path.toFile();
+        update(digest, file.getAbsolutePath() + "=" + file.length() + "/" + file.lastModified());
+      }
+    } else {
+      update(digest, element.getAbsolutePath() + "=" + element.length() + "/" + element.lastModified());
+    }
+  }
+
+  private Map<String, Entry> load(File cacheFile, Log log) {
+    Map<String, Entry> cached = new HashMap<String, Entry>();
+    if (!cacheFile.isFile()) {
+      return cached;
+    }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8));
+      if (!HEADER.equals(reader.readLine())) {
+        log.debug("Ignoring " + cacheFile + " written by another version");
+        return cached;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length == 3 && fields[0].equals("P")) {
+          passed.put(fields[1], fields[2]);
+        } else if (fields.length == 6 && fields[0].equals("F")) {
+          List<String> references = fields[5].isEmpty() ? Collections.<String> emptyList()
+              : Arrays.asList(fields[5].split(","));
+          cached.put(fields[1], new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4],
+                                          references));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      log.warn("Unable to read " + cacheFile + ", all test classes are affected", e);
+      cached.clear();
+      passed.clear();
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return cached;
+  }
+
+  public void save(File cacheFile) throws IOException {
+    File dir = cacheFile.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to mkdirs " + dir);
+    }
+    File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+    PrintWriter writer = null;
+    try {
+      writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8));
+      writer.print(HEADER + "\n");
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        Entry value = entry.getValue();
+        writer.print("F\t" + entry.getKey() + "\t" + value.size + "\t" + value.lastModified + "\t" + value.hash + "\t"
+                     + String.join(",", value.references) + "\n");
+      }
+      for (Map.Entry<String, String> entry : passed.entrySet()) {
+        writer.print("P\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+      }
+      writer.close();
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + tmpFile);
+      }
+      Util.moveAtomically(tmpFile, cacheFile);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      tmpFile.delete();
+    }
+  }
+
+  private static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(value.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) '\n');
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private static class Entry {
+    final long         size;
+    final long         lastModified;
+    final String       hash;
+    final List<String> references;
+
+    Entry(long size, long lastModified, String hash, List<String> references) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+      this.references = references;
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Guesses the branch of a detached HEAD, as checked out by CI servers and
+ * submodules, trying the cheapest signals first:
+ * <ol>
+ * <li>the branch told by the CI server environment, when its tip is the HEAD</li>
+ * <li>the remote branches matching {@link Util#GIT_BRANCH_MATCH_REGEX} whose
+ * tip is the HEAD, read from the loose and packed refs</li>
+ * <li>those remote branches whose history contains the HEAD, checked with git
+ * merge-base --is-ancestor, as many at a time as there are processors, in
+ * the order the branches are preferred: main and master, and the
+ * {@link #MAX_ANCESTRY_CANDIDATES} other ones with the most recent
+ * commits</li>
+ * </ol>
+ * When several remote branches qualify, the first by
+ * {@link Util#GIT_BRANCH_NAME_COMPARATOR} wins. Unlike git branch --contains,
+ * the history of the other remote branches is never walked, the checks of
+ * the less preferred branches aren't started once the branch is known, and
+ * those still running are killed.
+ */
+public class BranchInference {
+
+  /**
+   * Variables telling the branch being built, by Jenkins, Jenkins multibranch
+   * pipelines, GitLab, GitHub Actions and Azure Pipelines
+   */
+  public static final List<String> CI_BRANCH_VARIABLES     = Arrays.asList("GIT_BRANCH", "BRANCH_NAME",
+                                                                           "CI_COMMIT_REF_NAME", "GITHUB_REF_NAME",
+                                                                           "BUILD_SOURCEBRANCH");
+
+  public static final int          MAX_ANCESTRY_CANDIDATES = 32;
+
+  private BranchInference() {
+    //
+  }
+
+  /**
+   * @return the values of the {@link #CI_BRANCH_VARIABLES} in env, which the
+   *         inferred branch depends on
+   */
+  static String getEnvironmentStamp(Map<String, String> env) {
+    StringBuilder sb = new StringBuilder();
+    for (String variable : CI_BRANCH_VARIABLES) {
+      sb.append('\n').append(variable).append('=').append(env.get(variable));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param workdir where to run git for the ancestry checks
+   * @param env the environment, usually {@link System#getenv()}
+   * @param stop kills the git commands when it returns true
+   * @return the guessed branch, or null
+   */
+  public static String inferBranch(GitRepository repository, String revision, File workdir, Map<String, String> env,
+                                   Log log, BooleanSupplier stop) throws IOException {
+    Collection<String> remotes = repository.getRemoteUrls().keySet();
+    Map<String, String> remoteRefs = repository.getRefs(GitRepository.REMOTES);
+
+    for (String variable : CI_BRANCH_VARIABLES) {
+      String branch = stripRef(env.get(variable), remotes);
+      if (branch == null) {
+        continue;
+      }
+      // the variables of the main checkout also show in its submodules
+      boolean isHead = revision.equals(repository.resolve(GitRepository.HEADS + branch));
+      for (String remote : remotes) {
+        isHead |= revision.equals(remoteRefs.get(GitRepository.REMOTES + remote + "/" + branch));
+      }
+      if (isHead) {
+        log.debug("Branch " + branch + " from " + variable);
+        return branch;
+      }
+    }
+
+    // the refs of every candidate branch, in the order they're preferred
+    Map<String, List<String>> candidates = new LinkedHashMap<String, List<String>>();
+    List<String> names = new ArrayList<String>();
+    for (String ref : remoteRefs.keySet()) {
+      String branch = stripRef(ref, remotes);
+      if (branch != null && branch.matches(Util.GIT_BRANCH_MATCH_REGEX) && !names.contains(branch)) {
+        names.add(branch);
+      }
+    }
+    names.sort(Util.GIT_BRANCH_NAME_COMPARATOR);
+    for (String branch : names) {
+      candidates.put(branch, new ArrayList<String>());
+    }
+    for (String ref : remoteRefs.keySet()) {
+      List<String> refs = candidates.get(stripRef(ref, remotes));
+      if (refs != null) {
+        refs.add(ref);
+      }
+    }
+
+    for (Map.Entry<String, List<String>> candidate : candidates.entrySet()) {
+      for (String ref : candidate.getValue()) {
+        if (revision.equals(remoteRefs.get(ref))) {
+          log.debug("Branch " + candidate.getKey() + " from the tip of " + ref);
+          return candidate.getKey();
+        }
+      }
+    }
+
+    Set<String> checked = selectAncestryCandidates(candidates.keySet(), remotes, workdir, log, stop);
+    if (stop.getAsBoolean()) {
+      return null;
+    }
+    // the refs to check, in the order they're preferred
+    List<String> checkedBranches = new ArrayList<String>();
+    List<String> checkedRefs = new ArrayList<String>();
+    for (Map.Entry<String, List<String>> candidate : candidates.entrySet()) {
+      if (checked.contains(candidate.getKey())) {
+        for (String ref : candidate.getValue()) {
+          checkedBranches.add(candidate.getKey());
+          checkedRefs.add(ref);
+        }
+      }
+    }
+    // a few checks run ahead of the one awaited, the others only start once
+    // the more preferred branches are known not to contain the revision
+    int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+    List<CompletableFuture<Integer>> checks = new ArrayList<CompletableFuture<Integer>>();
+    AtomicBoolean done = new AtomicBoolean();
+    try {
+      for (int i = 0; i < checkedRefs.size(); i++) {
+        while (checks.size() < checkedRefs.size() && checks.size() < i + parallelism) {
+          checks.add(Util.execAsync(Arrays.asList("git", "merge-base", "--is-ancestor", revision,
+              checkedRefs.get(checks.size())), workdir, Util.EXEC_TIMEOUT_SECONDS, TimeUnit.SECONDS, line -> { },
+              line -> log.debug("git: " + line), () -> done.get() || stop.getAsBoolean()));
+        }
+        String branch = checkedBranches.get(i);
+        try {
+          // exits with 1 when not an ancestor, other codes are errors, like a shallow clone
+          if (checks.get(i).join() == 0) {
+            log.debug("Branch " + branch + " from its history");
+            return branch;
+          }
+        } catch (RuntimeException e) {
+          log.debug("Unable to tell whether " + branch + " contains " + revision, e);
+        }
+        if (stop.getAsBoolean()) {
+          return null;
+        }
+      }
+      return null;
+    } finally {
+      // kills the checks of the less preferred branches
+      done.set(true);
+    }
+  }
+
+  /**
+   * @return main and master, and the {@link #MAX_ANCESTRY_CANDIDATES} other
+   *         branches with the most recent commits, as told by git
+   *         for-each-ref. The first ones by name if git can't tell
+   */
+  private static Set<String> selectAncestryCandidates(Collection<String> branches, Collection<String> remotes,
+                                                      File workdir, Log log, BooleanSupplier stop) {
+    Set<String> selected = new HashSet<String>();
+    Set<String> others = new LinkedHashSet<String>();
+    for (String branch : branches) {
+      if ("main".equals(branch) || "master".equals(branch)) {
+        selected.add(branch);
+      } else {
+        others.add(branch);
+      }
+    }
+    if (others.size() <= MAX_ANCESTRY_CANDIDATES) {
+      selected.addAll(others);
+      return selected;
+    }
+    List<String> refs = new ArrayList<String>();
+    try {
+      ProcessBuilder builder = new ProcessBuilder("git", "for-each-ref", "--sort=-committerdate",
+          "--format=%(refname)", GitRepository.REMOTES).directory(workdir);
+      int exitCode = Util.exec(builder, StandardCharsets.UTF_8, Util.EXEC_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+          refs::add, line -> log.debug("git: " + line), stop);
+      if (exitCode != 0) {
+        refs = Collections.emptyList();
+      }
+    } catch (IOException | TimeoutException | CancellationException e) {
+      log.debug("Unable to sort the branches by commit date", e);
+      refs = Collections.emptyList();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      refs = Collections.emptyList();
+    }
+    Set<String> recent = new LinkedHashSet<String>();
+    for (String ref : refs) {
+      String branch = stripRef(ref, remotes);
+      if (others.contains(branch)) {
+        recent.add(branch);
+      }
+    }
+    // branches git didn't list, if any, come last
+    recent.addAll(others);
+    log.debug("Only looking for the HEAD in the history of main, master and the " + MAX_ANCESTRY_CANDIDATES
+              + " most recent of " + others.size() + " other branches");
+    selected.addAll(new ArrayList<String>(recent).subList(0, MAX_ANCESTRY_CANDIDATES));
+    return selected;
+  }
+
+  /**
+   * @return the branch name of a ref, remote ref or CI variable value, without
+   *         its refs/heads/, refs/remotes/ or remote name prefix
+   */
+  static String stripRef(String ref, Collection<String> remotes) {
+    if (ref == null || ref.isEmpty()) {
+      return null;
+    }
+    if (ref.startsWith(GitRepository.HEADS)) {
+      return ref.substring(GitRepository.HEADS.length());
+    }
+    boolean isRemote = ref.startsWith(GitRepository.REMOTES);
+    String name = isRemote ? ref.substring(GitRepository.REMOTES.length()) : ref;
+    for (String remote : remotes) {
+      if (name.startsWith(remote + "/")) {
+        return name.substring(remote.length() + 1);
+      }
+    }
+    // remote refs of a remote removed from the config
+    return isRemote ? null : name;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the size and modification time of the junit reports that have
+ * already been cleaned so that they can be skipped the next time the reports
+ * directory is processed, along with their summary so that skipped reports
+ * don't have to be read again.
+ *
+ * The index is a small tab separated file kept in the reports directory, one
+ * line per report. It is thread safe so it can be updated by concurrent
+ * cleaners. An index written for another cleaner configuration is ignored
+ * since its reports were cleaned differently.
+ */
+public class CleanedReportIndex {
+  public static final String                FILENAME = ".cleaned-reports.idx";
+  private static final String               HEADER   = "# cleaned junit reports v2";
+
+  private final File                        file;
+  private final String                      header;
+  private final ConcurrentMap<String, Entry> entries  = new ConcurrentHashMap<String, Entry>();
+
+  private CleanedReportIndex(File file, String configuration) {
+    this.file = file;
+    this.header = HEADER + "\t" + configuration;
+  }
+
+  /**
+   * Loads the index of the given reports directory. A missing or unreadable
+   * index gives an empty one, meaning every report will be cleaned again.
+   */
+  public static CleanedReportIndex load(File reportsDir, String configuration, Log log) {
+    CleanedReportIndex index = new CleanedReportIndex(new File(reportsDir, FILENAME), configuration);
+    if (!index.file.isFile()) {
+      return index;
+    }
+
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(index.file), StandardCharsets.UTF_8));
+      if (!index.header.equals(reader.readLine())) {
+        log.debug("Ignoring " + index.file + " written by another version or configuration");
+        return index;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if (fields.length < 4) {
+          continue;
+        }
+        ReportSummary summary = ReportSummary.fromCsv(fields[3]);
+        if (summary == null) {
+          continue;
+        }
+        index.entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), summary));
+      }
+    } catch (IOException | NumberFormatException e) {
+      log.warn("Unable to read " + index.file + ", all junit reports will be cleaned", e);
+      index.entries.clear();
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return index;
+  }
+
+  /**
+   * @return true if the report hasn't changed since it was marked as clean
+   */
+  public boolean isClean(File report) {
+    return getCleanSummary(report) != null;
+  }
+
+  /**
+   * @return the summary recorded for the report, or null if the report changed
+   *         since it was marked as clean
+   */
+  public ReportSummary getCleanSummary(File report) {
+    Entry entry = entries.get(report.getName());
+    if (entry == null || entry.size != report.length() || entry.lastModified != report.lastModified()) {
+      return null;
+    }
+    return entry.summary;
+  }
+
+  /**
+   * Records the current state and the summary of a report that was just
+   * cleaned
+   */
+  public void markClean(File report, ReportSummary summary) {
+    entries.put(report.getName(), new Entry(report.length(), report.lastModified(), summary));
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Writes the index, dropping entries of reports that don't exist anymore
+   */
+  public void save() throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    Map<String, Entry> sorted = new TreeMap<String, Entry>(entries);
+    File tmpFile = File.createTempFile(FILENAME, ".tmp", dir);
+    PrintWriter writer = null;
+    try {
+      writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8));
+      writer.print(header + "\n");
+      for (Map.Entry<String, Entry> entry : sorted.entrySet()) {
+        if (!new File(dir, entry.getKey()).exists()) {
+          continue;
+        }
+        writer.print(entry.getKey() + "\t" + entry.getValue().size + "\t" + entry.getValue().lastModified + "\t"
+                     + entry.getValue().summary.toCsv() + "\n");
+      }
+      writer.close();
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + tmpFile);
+      }
+      Util.moveAtomically(tmpFile, file);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      tmpFile.delete();
+    }
+  }
+
+  private static class Entry {
+    final long          size;
+    final long          lastModified;
+    final ReportSummary summary;
+
+    Entry(long size, long lastModified, ReportSummary summary) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.summary = summary;
+    }
+  }
+}
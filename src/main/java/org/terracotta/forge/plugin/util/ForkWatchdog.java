@@ -0,0 +1,216 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Watches the JVMs forked by surefire and, as one gets close to
+ * forkedProcessTimeoutInSeconds, takes a few thread dumps of it and a class
+ * histogram with jcmd, so that a timed out test leaves more behind than a
+ * killed process.
+ *
+ * Only the forks booted from the surefire temp directory of the execution are
+ * watched, not those of the other modules of a parallel build. The dumps of a
+ * fork are written to timeout-pid&lt;pid&gt;.dump in the reports directory,
+ * where the report cleaning looks for them.
+ */
+public class ForkWatchdog implements Closeable {
+  public static final String       DUMP_PREFIX     = "timeout-pid";
+  public static final String       DUMP_SUFFIX     = ".dump";
+  private static final int         HISTOGRAM_LINES = 100;
+  private static final long        JCMD_TIMEOUT_MS = 60000;
+
+  private final File               reportsDir;
+  private final String             bootDir;
+  private final int                timeoutSeconds;
+  private final int                threadDumps;
+  private final int                intervalSeconds;
+  private final Log                log;
+  private final Map<Long, Integer> dumpsTaken      = new ConcurrentHashMap<Long, Integer>();
+  private final Set<File>          dumpFiles       = ConcurrentHashMap.newKeySet();
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param bootDir the directory surefire writes the booter jar of its forks
+   *          to, which their command line refers to
+   * @param intervalSeconds time between the thread dumps, the last one being
+   *          taken that long before the timeout. It is shortened if the dumps
+   *          don't fit in the timeout
+   */
+  public ForkWatchdog(File reportsDir, File bootDir, int timeoutSeconds, int threadDumps, int intervalSeconds,
+                      Log log) {
+    this.reportsDir = reportsDir;
+    this.bootDir = bootDir.getAbsolutePath() + File.separator;
+    this.timeoutSeconds = timeoutSeconds;
+    this.threadDumps = threadDumps;
+    this.intervalSeconds = Math.max(1, Math.min(intervalSeconds, timeoutSeconds / (threadDumps + 1)));
+    this.log = log;
+  }
+
+  /**
+   * Checks the forks every second. The dumps of previous runs are left
+   * alone, a dump file is only overwritten when a fork of the same pid gets
+   * dumped
+   */
+  public void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("fork-watchdog-%d").setDaemon(true).build());
+    scheduler.scheduleWithFixedDelay(this::check, 1, 1, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  public static boolean isDump(String fileName) {
+    return fileName.startsWith(DUMP_PREFIX) && fileName.endsWith(DUMP_SUFFIX);
+  }
+
+  private void check() {
+    try {
+      List<ProcessHandle> forks = ProcessHandle.current().descendants().filter(this::isFork)
+          .collect(Collectors.toList());
+      for (ProcessHandle fork : forks) {
+        Instant started = fork.info().startInstant().orElse(null);
+        if (started == null) {
+          continue;
+        }
+        long elapsed = (System.currentTimeMillis() - started.toEpochMilli()) / 1000;
+        int taken = dumpsTaken.getOrDefault(fork.pid(), 0);
+        // the i-th dump is due (threadDumps - i) intervals before the timeout
+        if (taken < threadDumps && elapsed >= timeoutSeconds - (long) (threadDumps - taken) * intervalSeconds) {
+          dumpsTaken.put(fork.pid(), taken + 1);
+          dump(fork, taken + 1, timeoutSeconds - elapsed);
+        }
+      }
+      for (Iterator<Long> it = dumpsTaken.keySet().iterator(); it.hasNext();) {
+        if (!ProcessHandle.of(it.next()).isPresent()) {
+          it.remove();
+        }
+      }
+    } catch (RuntimeException e) {
+      // keep the watchdog running
+      log.debug("Fork watchdog check failed", e);
+    }
+  }
+
+  /**
+   * Only the JVM itself is a fork, not the shell surefire may start it with:
+   * jcmd signals the process it attaches to, which would kill a shell
+   */
+  private boolean isFork(ProcessHandle process) {
+    String command = new File(process.info().command().orElse("")).getName();
+    if (!command.equals("java") && !command.equals("java.exe")) {
+      return false;
+    }
+    return process.info().commandLine().orElse("").contains(bootDir);
+  }
+
+  private void dump(ProcessHandle fork, int number, long secondsLeft) {
+    File jcmd = findJcmd(fork);
+    if (jcmd == null) {
+      log.warn("No jcmd found to dump the threads of forked JVM " + fork.pid() + " close to its timeout");
+      return;
+    }
+    File dumpFile = new File(reportsDir, DUMP_PREFIX + fork.pid() + DUMP_SUFFIX);
+    log.warn("Forked JVM " + fork.pid() + " times out in " + secondsLeft + " s, dumping its threads to " + dumpFile);
+    PrintWriter out = null;
+    try {
+      if (!reportsDir.isDirectory() && !reportsDir.mkdirs()) {
+        throw new IOException("Failed to mkdirs " + reportsDir);
+      }
+      // a dump of a previous run for the same pid is overwritten
+      boolean append = !dumpFiles.add(dumpFile);
+      out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(dumpFile, append),
+                                                   Charset.defaultCharset()));
+      out.println("=== Thread dump " + number + " of " + threadDumps + ", " + secondsLeft + " s before the "
+                  + timeoutSeconds + " s timeout, at " + Instant.now());
+      out.println(jcmd(jcmd, fork.pid(), "Thread.print", Integer.MAX_VALUE));
+      if (number == threadDumps) {
+        out.println("=== Class histogram, top " + HISTOGRAM_LINES + " classes");
+        out.println(jcmd(jcmd, fork.pid(), "GC.class_histogram", HISTOGRAM_LINES + 3));
+      }
+      out.close();
+      if (out.checkError()) {
+        log.warn("Failed to write " + dumpFile);
+      }
+    } catch (IOException e) {
+      log.warn("Unable to dump the threads of forked JVM " + fork.pid(), e);
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  /**
+   * @return the jcmd of the JDK running the fork, or else of the one running
+   *         maven
+   */
+  private static File findJcmd(ProcessHandle fork) {
+    String java = fork.info().command().orElse(null);
+    File[] binDirs = { java != null ? new File(java).getParentFile() : null,
+        new File(System.getProperty("java.home"), "bin") };
+    for (File binDir : binDirs) {
+      if (binDir == null) {
+        continue;
+      }
+      for (String name : new String[] { "jcmd", "jcmd.exe" }) {
+        File jcmd = new File(binDir, name);
+        if (jcmd.canExecute()) {
+          return jcmd;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the first maxLines lines printed by the given jcmd command
+   */
+  private static String jcmd(File jcmd, long pid, String command, int maxLines) throws IOException {
+    // appended to from the thread draining jcmd
+    StringBuffer output = new StringBuffer();
+    AtomicInteger lines = new AtomicInteger();
+    try {
+      Util.exec(new ProcessBuilder(jcmd.getAbsolutePath(), Long.toString(pid), command).redirectErrorStream(true),
+          Charset.defaultCharset(), JCMD_TIMEOUT_MS, TimeUnit.MILLISECONDS, line -> {
+            // keep draining so that jcmd doesn't block
+            if (lines.getAndIncrement() < maxLines) {
+              output.append(line).append('\n');
+            }
+          }, line -> { }, () -> false);
+    } catch (TimeoutException e) {
+      output.append("jcmd ").append(command).append(" timed out after ").append(JCMD_TIMEOUT_MS).append(" ms\n");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return output.toString();
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads the HEAD, refs and remotes of a git repository straight from its git
+ * directory, without forking git.
+ *
+ * Linked worktrees and submodules, whose .git is a file pointing at their git
+ * directory, are supported: their refs and config are read from the common
+ * directory of the repository. Objects aren't read, so only what refs and
+ * config tell is known.
+ *
+ * Remote urls rewritten by url.&lt;base&gt;.insteadOf, or defined in files
+ * the config includes, aren't followed: when the config of the repository, of
+ * the user or of the system has a url or include section, the remote urls are
+ * asked to git instead.
+ */
+public class GitRepository {
+  static final String         HEADS            = "refs/heads/";
+  static final String         REMOTES          = "refs/remotes/";
+  private static final String REF_PREFIX       = "ref: ";
+  private static final int    MAX_SYMREF_DEPTH = 5;
+
+  private final File gitDir;
+  private final File commonDir;
+
+  private GitRepository(File gitDir, File commonDir) {
+    this.gitDir = gitDir;
+    this.commonDir = commonDir;
+  }
+
+  /**
+   * Looks for the repository of the given directory, walking up its parents
+   * like git does
+   *
+   * @return the repository, or null if dir doesn't exist or isn't in a git
+   *         repository
+   */
+  public static GitRepository find(File dir) throws IOException {
+    if (!dir.isDirectory()) {
+      return null;
+    }
+    for (File current = dir.getCanonicalFile(); current != null; current = current.getParentFile()) {
+      File dotGit = new File(current, ".git");
+      File gitDir = null;
+      if (dotGit.isDirectory()) {
+        gitDir = dotGit;
+      } else if (dotGit.isFile()) {
+        // "gitdir: <path>", relative to the directory of the .git file
+        String content = read(dotGit);
+        if (content != null && content.startsWith("gitdir:")) {
+          gitDir = resolve(current, content.substring("gitdir:".length()).trim());
+        }
+      }
+      if (gitDir != null && new File(gitDir, "HEAD").isFile()) {
+        String commonDir = read(new File(gitDir, "commondir"));
+        return new GitRepository(gitDir, commonDir == null ? gitDir : resolve(gitDir, commonDir));
+      }
+    }
+    return null;
+  }
+
+  public File getGitDir() {
+    return gitDir;
+  }
+
+  /**
+   * @return a stamp of the files telling the HEAD, its branch and the
+   *         remotes, which changes whenever one of them is written
+   */
+  public String getStamp() throws IOException {
+    StringBuilder stamp = new StringBuilder();
+    File head = new File(gitDir, "HEAD");
+    stamp(stamp, head);
+    String value = read(head);
+    if (value != null && value.startsWith(REF_PREFIX)) {
+      String ref = value.substring(REF_PREFIX.length()).trim();
+      stamp(stamp, new File(gitDir, ref));
+      stamp(stamp, new File(commonDir, ref));
+    }
+    stamp(stamp, new File(commonDir, "packed-refs"));
+    for (File config : getConfigFiles()) {
+      stamp(stamp, config);
+    }
+    // every remote ref and the directories holding them, so that refs added
+    // or removed by a fetch change the stamp as well as the updated ones
+    Path remotesDir = commonDir.toPath().resolve(REMOTES);
+    if (Files.isDirectory(remotesDir)) {
+      List<Path> paths;
+      try (Stream<Path> walk = Files.walk(remotesDir)) {
+        paths = walk.sorted().collect(Collectors.toList());
+      }
+      for (Path path : paths) {
+        stamp.append(remotesDir.relativize(path)).append('=');
+        stamp(stamp, path.toFile());
+      }
+    }
+    return stamp.toString();
+  }
+
+  /**
+   * @return the short name of the checked out branch, or null if the HEAD is
+   *         detached
+   */
+  public String getBranch() throws IOException {
+    String head = read(new File(gitDir, "HEAD"));
+    if (head == null || !head.startsWith(REF_PREFIX)) {
+      return null;
+    }
+    String ref = head.substring(REF_PREFIX.length()).trim();
+    return ref.startsWith(HEADS) ? ref.substring(HEADS.length()) : ref;
+  }
+
+  /**
+   * @return the commit of HEAD, or null on a branch without commits
+   */
+  public String getRevision() throws IOException {
+    return resolve("HEAD");
+  }
+
+  /**
+   * Resolves a ref by its full name, following symbolic refs
+   *
+   * @return the object id the ref points to, or null if it doesn't exist
+   */
+  public String resolve(String ref) throws IOException {
+    for (int depth = 0; depth < MAX_SYMREF_DEPTH; depth++) {
+      String value = readLooseRef(ref);
+      if (value == null) {
+        return readPackedRefs().get(ref);
+      }
+      if (!value.startsWith(REF_PREFIX)) {
+        return value;
+      }
+      ref = value.substring(REF_PREFIX.length()).trim();
+    }
+    throw new IOException("Too many levels of symbolic refs resolving " + ref + " in " + gitDir);
+  }
+
+  /**
+   * @return the object ids of the refs whose full name starts with prefix,
+   *         symbolic refs like refs/remotes/origin/HEAD excluded, by name
+   */
+  public Map<String, String> getRefs(String prefix) throws IOException {
+    Map<String, String> refs = new TreeMap<String, String>();
+    for (Map.Entry<String, String> entry : readPackedRefs().entrySet()) {
+      if (entry.getKey().startsWith(prefix)) {
+        refs.put(entry.getKey(), entry.getValue());
+      }
+    }
+    Path refsDir = commonDir.toPath().resolve("refs");
+    if (Files.isDirectory(refsDir)) {
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(refsDir)) {
+        files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+      }
+      for (Path file : files) {
+        String name = "refs/" + refsDir.relativize(file).toString().replace(File.separatorChar, '/');
+        if (!name.startsWith(prefix)) {
+          continue;
+        }
+        // loose refs take precedence over packed ones
+        String value = read(file.toFile());
+        if (value == null || value.startsWith(REF_PREFIX)) {
+          refs.remove(name);
+        } else {
+          refs.put(name, value);
+        }
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * @return the urls of the remotes, in the order of the config file, or as
+   *         listed by git remote -v when the config rewrites urls or includes
+   *         other files
+   */
+  public Map<String, String> getRemoteUrls() throws IOException {
+    if (hasUrlOrIncludeSection()) {
+      return readRemoteUrlsWithGit();
+    }
+    Map<String, String> urls = new LinkedHashMap<String, String>();
+    File config = new File(commonDir, "config");
+    if (!config.isFile()) {
+      return urls;
+    }
+    String remote = null;
+    for (String line : Files.readAllLines(config.toPath(), StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (line.startsWith("[")) {
+        // [remote "origin"], section names are case insensitive, subsections aren't
+        int end = line.lastIndexOf(']');
+        String section = end > 0 ? line.substring(1, end).trim() : "";
+        remote = null;
+        if (section.regionMatches(true, 0, "remote", 0, 6) && section.length() > 6) {
+          String name = section.substring(6).trim();
+          if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+            remote = name.substring(1, name.length() - 1);
+          }
+        }
+        continue;
+      }
+      int eq = line.indexOf('=');
+      if (remote != null && eq > 0 && line.substring(0, eq).trim().equalsIgnoreCase("url")
+          && !urls.containsKey(remote)) {
+        urls.put(remote, configValue(line.substring(eq + 1)));
+      }
+    }
+    return urls;
+  }
+
+  /**
+   * @return the config files of the repository, the user and the system, as
+   *         git reads them, existing or not
+   */
+  private List<File> getConfigFiles() {
+    List<File> files = new ArrayList<File>();
+    files.add(new File(commonDir, "config"));
+    String home = System.getProperty("user.home");
+    String global = System.getenv("GIT_CONFIG_GLOBAL");
+    if (global != null) {
+      files.add(new File(global));
+    } else {
+      String xdgConfigHome = System.getenv("XDG_CONFIG_HOME");
+      files.add(xdgConfigHome != null && !xdgConfigHome.isEmpty() ? new File(xdgConfigHome, "git/config")
+          : new File(home, ".config/git/config"));
+      files.add(new File(home, ".gitconfig"));
+    }
+    if (System.getenv("GIT_CONFIG_NOSYSTEM") == null) {
+      String system = System.getenv("GIT_CONFIG_SYSTEM");
+      files.add(new File(system != null ? system : "/etc/gitconfig"));
+    }
+    return files;
+  }
+
+  private boolean hasUrlOrIncludeSection() throws IOException {
+    if (System.getenv("GIT_CONFIG_COUNT") != null || System.getenv("GIT_CONFIG_PARAMETERS") != null) {
+      // config given on the command line of an enclosing git
+      return true;
+    }
+    for (File config : getConfigFiles()) {
+      if (!config.isFile()) {
+        continue;
+      }
+      for (String line : Files.readAllLines(config.toPath(), StandardCharsets.UTF_8)) {
+        line = line.trim();
+        // [url "<base>"], [include] and [includeIf "<condition>"]
+        if (line.regionMatches(true, 0, "[url", 0, 4) || line.regionMatches(true, 0, "[include", 0, 8)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Map<String, String> readRemoteUrlsWithGit() throws IOException {
+    Map<String, String> urls = new LinkedHashMap<String, String>();
+    List<String> command = Arrays.asList("git", "--git-dir=" + gitDir.getAbsolutePath(), "remote", "-v");
+    try {
+      // origin<TAB>https://an.example/repo.git (fetch)
+      int exitCode = Util.exec(command, gitDir, Util.EXEC_TIMEOUT_SECONDS, TimeUnit.SECONDS, line -> {
+        int tab = line.indexOf('\t');
+        if (tab > 0 && line.endsWith(" (fetch)")) {
+          urls.putIfAbsent(line.substring(0, tab), line.substring(tab + 1, line.length() - " (fetch)".length()));
+        }
+      }, line -> { });
+      if (exitCode != 0) {
+        throw new IOException(StringUtils.join(command, " ") + " exited with code " + exitCode);
+      }
+    } catch (TimeoutException e) {
+      throw new IOException(StringUtils.join(command, " ") + " timed out", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted running " + StringUtils.join(command, " "));
+    }
+    // the output is drained before exec returns
+    return urls;
+  }
+
+  private String readLooseRef(String ref) throws IOException {
+    // HEAD and other per worktree refs live in the worktree git dir
+    String value = read(new File(gitDir, ref));
+    if (value == null && commonDir != gitDir) {
+      value = read(new File(commonDir, ref));
+    }
+    return value;
+  }
+
+  private Map<String, String> readPackedRefs() throws IOException {
+    Map<String, String> refs = new LinkedHashMap<String, String>();
+    File packedRefs = new File(commonDir, "packed-refs");
+    if (!packedRefs.isFile()) {
+      return refs;
+    }
+    for (String line : Files.readAllLines(packedRefs.toPath(), StandardCharsets.UTF_8)) {
+      // skip the header and the peeled ids of annotated tags
+      if (line.isEmpty() || line.startsWith("#") || line.startsWith("^")) {
+        continue;
+      }
+      int space = line.indexOf(' ');
+      if (space > 0) {
+        refs.put(line.substring(space + 1).trim(), line.substring(0, space));
+      }
+    }
+    return refs;
+  }
+
+  private static String configValue(String raw) {
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (c == '\\' && i + 1 < raw.length()) {
+        char next = raw.charAt(++i);
+        value.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+      } else if (!quoted && (c == '#' || c == ';')) {
+        break;
+      } else {
+        value.append(c);
+      }
+    }
+    return value.toString().trim();
+  }
+
+  private static void stamp(StringBuilder stamp, File file) {
+    stamp.append(file.lastModified()).append('/').append(file.length()).append(';');
+  }
+
+  private static File resolve(File base, String path) {
+    File file = new File(path);
+    return file.isAbsolute() ? file : new File(base, path);
+  }
+
+  /**
+   * @return the trimmed content of the file, or null if it doesn't exist
+   */
+  private static String read(File file) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+  }
+}
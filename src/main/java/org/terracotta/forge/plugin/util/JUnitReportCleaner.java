@@ -5,38 +5,54 @@
 package org.terracotta.forge.plugin.util;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.text.CharacterIterator;
-import java.text.StringCharacterIterator;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 /**
  * A tool to clean up junit report for elements that we're not interested in
  * like "properties" "system-out" and "system-err"
  * 
+ * Instead of being dropped, elements can also be truncated to their last
+ * characters, e.g. to keep the end of the test output which is usually what's
+ * needed to diagnose a failure. The number of characters removed is recorded
+ * in a "truncated" attribute
+ * 
  * If the report has syntax error or zero in length, the report will be replaced
  * with a generic error report
  * 
+ * The cleaned report is streamed to a temporary file next to the original and
+ * then moved over it, so memory usage doesn't depend on the report size and
+ * a half written report is never left behind
+ * 
+ * Reports are first scanned byte by byte, see {@link ReportScanner}. Complete
+ * and well-formed reports with no element to remove are left untouched
+ * without being parsed
+ * 
  * @author hhuynh
  * 
  */
 public class JUnitReportCleaner extends DefaultHandler {
   private final Set<String>   UNWANTED_ELEMENTS  = new HashSet<String>();
+  private final Set<String>   TRUNCATED_ELEMENTS = new HashSet<String>();
   private final Pattern       CLASSNAME_FROM_XML = Pattern
                                                      .compile("TEST-(.*)\\.xml");
   private final Pattern       CLASSNAME_FROM_TXT = Pattern
@@ -52,20 +68,87 @@ public class JUnitReportCleaner extends DefaultHandler {
                                                      + "  <system-err />\n"
                                                      + "</testsuite>\n";
 
-  private StringBuilder       reportBuffer;
-  private StringBuilder       currentText;
+  private static final int    WRITE_BUFFER_SIZE  = 64 * 1024;
+
+  private Writer              out;
+  private final StringBuilder currentText        = new StringBuilder();
+  private final char[]        textChunk          = new char[4096];
   private int                 deleteDepth;
-  private int                 failCount;
+  private ReportSummary       summary;
   private final Log           log;
 
+  private TailBuffer          tail;
+  private char[]              tailChars;
+  private String              truncatedElement;
+  private int                 truncatedDepth;
+  private String              previouslyTruncated;
+  private final StringBuilder truncatedAttributes = new StringBuilder();
+
+  private final ReportScanner scanner             = new ReportScanner(WRITE_BUFFER_SIZE);
+
   public JUnitReportCleaner(Log log) {
     this.log = log;
     UNWANTED_ELEMENTS.add("properties");
     UNWANTED_ELEMENTS.add("system-out");
     UNWANTED_ELEMENTS.add("system-err");
+    updateScannedTags();
+  }
+
+  /**
+   * Replaces the default set of elements (properties, system-out,
+   * system-err) that are removed from the reports
+   */
+  public void setUnwantedElements(Collection<String> elements) {
+    UNWANTED_ELEMENTS.clear();
+    UNWANTED_ELEMENTS.addAll(elements);
+    updateScannedTags();
+  }
+
+  /**
+   * Elements whose text is cut down to its last tailSize characters. This
+   * takes precedence over the unwanted elements
+   */
+  public void setTruncatedElements(Collection<String> elements, int tailSize) {
+    TRUNCATED_ELEMENTS.clear();
+    TRUNCATED_ELEMENTS.addAll(elements);
+    if (TRUNCATED_ELEMENTS.isEmpty()) {
+      tail = null;
+      tailChars = null;
+    } else {
+      tail = new TailBuffer(tailSize);
+      tailChars = new char[tailSize];
+    }
+    updateScannedTags();
+  }
+
+  private void updateScannedTags() {
+    Set<String> dropped = new HashSet<String>(UNWANTED_ELEMENTS);
+    dropped.removeAll(TRUNCATED_ELEMENTS);
+    scanner.setElements(dropped, TRUNCATED_ELEMENTS, tail != null ? tail.capacity() : 0);
+  }
+
+  /**
+   * @return a description of what the cleaner removes, reports cleaned with a
+   *         different configuration aren't clean for this one
+   */
+  public String getConfiguration() {
+    Set<String> dropped = new TreeSet<String>(UNWANTED_ELEMENTS);
+    dropped.removeAll(TRUNCATED_ELEMENTS);
+    String configuration = "drop=" + StringUtils.join(dropped, ",");
+    if (tail != null) {
+      configuration += ";tail=" + StringUtils.join(new TreeSet<String>(TRUNCATED_ELEMENTS), ",") + ":"
+                       + tail.capacity();
+    }
+    return configuration;
   }
 
-  public void cleanReport(File report) {
+  /**
+   * Instances keep parsing state, use one cleaner per thread.
+   * 
+   * @return the totals of the report, flagged as synthesized if the report was
+   *         replaced with a generic error report
+   */
+  public ReportSummary cleanReport(File report) {
     if (!report.exists()) {
       throw new RuntimeException("JUnit report " + report + " doesn't exist");
     }
@@ -73,52 +156,111 @@ public class JUnitReportCleaner extends DefaultHandler {
     String className = getClassname(report.getName());
     
     if (report.length() == 0L) {
-      createDefaultReport(report, className);
-      return;
+      return createDefaultReport(report, className);
     }
 
-    reset(report);
-
-    SAXParserFactory factory = SAXParserFactory.newInstance();
-    SAXParser parser;
     try {
-      parser = factory.newSAXParser();
-    } catch (ParserConfigurationException e) {
-      throw new RuntimeException(e);
-    } catch (SAXException e) {
+      if (!needsCleaning(report)) {
+        ReportSummary summary = readSummary(report, className);
+        if (summary != null) {
+          log.debug("Nothing to clean in " + report);
+          return summary;
+        }
+      }
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
 
+    reset(className);
+
+    SAXParser parser = SAXParserPool.acquire();
+    File cleanedReport = null;
     try {
-      parser.parse(report, this);
-      Writer writer = null;
+      cleanedReport = File.createTempFile(report.getName(), ".tmp", report.getAbsoluteFile().getParentFile());
+      out = openWriter(cleanedReport);
       try {
-        writer = new PrintWriter(report);
-        IOUtils.write(reportBuffer.toString(), writer);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+        parser.parse(report, this);
+        out.close();
       } finally {
-        IOUtils.closeQuietly(writer);
+        IOUtils.closeQuietly(out);
+        out = null;
       }
+      Util.moveAtomically(cleanedReport, report);
+      return summary;
     } catch (IOException e) {
       throw new RuntimeException(e);
+    } catch (WriteException e) {
+      // the report is fine, don't replace it with an error report
+      throw new RuntimeException("Failed to write the cleaned report of " + report, e.getException());
     } catch (SAXException e) {
-      createDefaultReport(report, className);
+      return createDefaultReport(report, className);
+    } finally {
+      SAXParserPool.release(parser);
+      if (cleanedReport != null) {
+        cleanedReport.delete();
+      }
     }
   }
 
-  public void createDefaultReport(File report, String className) {
+  public ReportSummary createDefaultReport(File report, String className) {
+    return createDefaultReport(report, className, null);
+  }
+
+  /**
+   * @param details diagnostics appended to the failure of the report, such as
+   *          the thread dumps taken before a timeout, null if there are none
+   */
+  public ReportSummary createDefaultReport(File report, String className, String details) {
     String defaultReport = DEAULT_REPORT.replace("CLASSNAME", className);
+    if (details != null) {
+      defaultReport = defaultReport.replace("Please check logs for details.\n", "Please check logs for details.\n"
+                                                                               + escapeText(details) + "\n");
+    }
+    File tmpReport = null;
     Writer writer = null;
     try {
-      writer = new PrintWriter(report);
+      tmpReport = File.createTempFile(report.getName(), ".tmp", report.getAbsoluteFile().getParentFile());
+      writer = openWriter(tmpReport);
       IOUtils.write(defaultReport, writer);
-      log.info("TEST " + className + " FAILED.");
+      writer.close();
+      Util.moveAtomically(tmpReport, report);
+      log.debug("Created default report " + report);
+      return new ReportSummary(className, 1, 1, 0, 0, 0, true);
     } catch (IOException e) {
       throw new RuntimeException(e);
     } finally {
       IOUtils.closeQuietly(writer);
+      if (tmpReport != null) {
+        tmpReport.delete();
+      }
+    }
+  }
+
+  /**
+   * @return the given text escaped as xml character data, without the
+   *         characters xml doesn't allow
+   */
+  private static String escapeText(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&':
+          sb.append("&amp;");
+          break;
+        case '<':
+          sb.append("&lt;");
+          break;
+        case '>':
+          sb.append("&gt;");
+          break;
+        default:
+          if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+            sb.append(c);
+          }
+      }
     }
+    return sb.toString();
   }
 
   public String getClassname(String filename) {
@@ -136,15 +278,79 @@ public class JUnitReportCleaner extends DefaultHandler {
     }
   }
 
-  private void reset(File report) {
-    reportBuffer = new StringBuilder();
+  /**
+   * @return false if the report can be left as is, see {@link ReportScanner}
+   */
+  boolean needsCleaning(File report) throws IOException {
+    return scanner.needsCleaning(report);
+  }
+
+  /**
+   * Reads the totals from the testsuite element without parsing further
+   * 
+   * @return null if the element couldn't be read
+   */
+  private ReportSummary readSummary(File report, String className) throws IOException {
+    SummaryReader reader = new SummaryReader(className);
+    SAXParser parser = SAXParserPool.acquire();
+    try {
+      parser.parse(report, reader);
+    } catch (SAXException e) {
+      // stopped at the testsuite element, or not a valid report
+    } finally {
+      SAXParserPool.release(parser);
+    }
+    return reader.found ? reader.summary : null;
+  }
+
+  private void reset(String className) {
+    currentText.setLength(0);
     deleteDepth = 0;
-    failCount = 0;
+    summary = new ReportSummary(className);
+    truncatedElement = null;
+  }
+
+  private static Writer openWriter(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+        WRITE_BUFFER_SIZE);
+  }
+
+  private void write(String s) throws SAXException {
+    try {
+      out.write(s);
+    } catch (IOException e) {
+      throw new WriteException(e);
+    }
+  }
+
+  private void write(char c) throws SAXException {
+    try {
+      out.write(c);
+    } catch (IOException e) {
+      throw new WriteException(e);
+    }
+  }
+
+  /**
+   * Copies the pending text to the writer through a reused chunk instead of
+   * materializing it as a String
+   */
+  private void writeCurrentText() throws SAXException {
+    try {
+      int length = currentText.length();
+      for (int offset = 0; offset < length; offset += textChunk.length) {
+        int count = Math.min(textChunk.length, length - offset);
+        currentText.getChars(offset, offset + count, textChunk, 0);
+        out.write(textChunk, 0, count);
+      }
+    } catch (IOException e) {
+      throw new WriteException(e);
+    }
   }
 
   @Override
   public void startDocument() throws SAXException {
-    reportBuffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+    write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
   }
 
   @Override
@@ -154,28 +360,30 @@ public class JUnitReportCleaner extends DefaultHandler {
 
   @Override
   public void characters(char[] ch, int start, int length) throws SAXException {
-    if (deleteDepth == 0) {
-      String s = new String(ch, start, length);
-      if (s.trim().length() == 0)
-        return;
-      currentText.append(escapeXML(s));
+    if (truncatedElement != null) {
+      tail.append(ch, start, length);
+    } else if (deleteDepth == 0 && !isWhitespace(ch, start, length)) {
+      escapeXML(ch, start, length, currentText);
     }
   }
 
   @Override
   public void startElement(String uri, String localName, String name,
       Attributes attributes) throws SAXException {
-    currentText = new StringBuilder();
+    if (truncatedElement != null) {
+      // only the text of nested elements is kept
+      truncatedDepth++;
+      return;
+    }
+    currentText.setLength(0);
     
     if ("testsuite".equals(name)) {
-      String errors = attributes.getValue("errors");
-      String failures = attributes.getValue("failures");
-      if (errors != null) {
-        failCount += Integer.valueOf(errors);
-      }
-      if (failures != null) {
-        failCount += Integer.valueOf(failures);
-      }
+      addTotals(summary, attributes);
+    }
+
+    if (deleteDepth == 0 && TRUNCATED_ELEMENTS.contains(name)) {
+      startTruncatedElement(name, attributes);
+      return;
     }
 
     if (UNWANTED_ELEMENTS.contains(name)) {
@@ -183,24 +391,44 @@ public class JUnitReportCleaner extends DefaultHandler {
     }
 
     if (deleteDepth == 0) {
-      reportBuffer.append("<" + name + " ");
-      for (int i = 0; i < attributes.getLength(); i++) {
-        reportBuffer.append(attributes.getQName(i) + "=\""
-            + escapeXML(attributes.getValue(i)) + "\" ");
+      try {
+        out.write('<');
+        out.write(name);
+        out.write(' ');
+        for (int i = 0; i < attributes.getLength(); i++) {
+          out.write(attributes.getQName(i));
+          out.write("=\"");
+          escapeXML(attributes.getValue(i), out);
+          out.write("\" ");
+        }
+        out.write(">\n");
+      } catch (IOException e) {
+        throw new WriteException(e);
       }
-      reportBuffer.append(">\n");
     }
   }
 
   @Override
   public void endElement(String uri, String localName, String name)
       throws SAXException {
+    if (truncatedElement != null) {
+      if (truncatedDepth > 0) {
+        truncatedDepth--;
+      } else {
+        endTruncatedElement();
+      }
+      return;
+    }
+
     if (deleteDepth == 0) {
-      if (currentText != null && currentText.length() > 0) {
-        reportBuffer.append(currentText.toString()).append("\n");
+      if (currentText.length() > 0) {
+        writeCurrentText();
+        write('\n');
       }
-      reportBuffer.append("</" + name + ">\n");
-      currentText = null;
+      write("</");
+      write(name);
+      write(">\n");
+      currentText.setLength(0);
     }
 
     if (UNWANTED_ELEMENTS.contains(name)) {
@@ -208,26 +436,173 @@ public class JUnitReportCleaner extends DefaultHandler {
     }
   }
 
-  private static String escapeXML(String s) {
-    StringBuilder result = new StringBuilder();
-    StringCharacterIterator iterator = new StringCharacterIterator(s);
-    char character = iterator.current();
-    while (character != CharacterIterator.DONE) {
-      if (character == '<') {
-        result.append("&lt;");
-      } else if (character == '>') {
-        result.append("&gt;");
-      } else if (character == '\"') {
-        result.append("&quot;");
-      } else if (character == '\'') {
-        result.append("&#039;");
-      } else if (character == '&') {
-        result.append("&amp;");
-      } else {
-        result.append(character);
+  private void startTruncatedElement(String name, Attributes attributes) {
+    truncatedElement = name;
+    truncatedDepth = 0;
+    previouslyTruncated = null;
+    tail.clear();
+    // the start tag can only be written once we know whether text was dropped
+    truncatedAttributes.setLength(0);
+    for (int i = 0; i < attributes.getLength(); i++) {
+      if ("truncated".equals(attributes.getQName(i))) {
+        previouslyTruncated = attributes.getValue(i);
+        continue;
+      }
+      truncatedAttributes.append(attributes.getQName(i)).append("=\"");
+      String value = attributes.getValue(i);
+      for (int j = 0; j < value.length(); j++) {
+        String entity = entityFor(value.charAt(j));
+        if (entity == null) {
+          truncatedAttributes.append(value.charAt(j));
+        } else {
+          truncatedAttributes.append(entity);
+        }
+      }
+      truncatedAttributes.append("\" ");
+    }
+  }
+
+  private void endTruncatedElement() throws SAXException {
+    long dropped = tail.dropped();
+    if (previouslyTruncated != null) {
+      try {
+        dropped += Long.parseLong(previouslyTruncated);
+      } catch (NumberFormatException e) {
+        // not ours, drop it
+      }
+    }
+    try {
+      out.write('<');
+      out.write(truncatedElement);
+      out.write(' ');
+      out.append(truncatedAttributes);
+      if (dropped > 0) {
+        out.write("truncated=\"");
+        out.write(Long.toString(dropped));
+        out.write("\" ");
+      }
+      out.write('>');
+      int length = tail.getChars(tailChars);
+      escapeXML(tailChars, 0, length, out);
+      out.write("</");
+      out.write(truncatedElement);
+      out.write(">\n");
+    } catch (IOException e) {
+      throw new WriteException(e);
+    }
+    truncatedElement = null;
+    currentText.setLength(0);
+  }
+
+  private static void addTotals(ReportSummary summary, Attributes attributes) {
+    summary.add(attributes.getValue("tests"), attributes.getValue("failures"), attributes.getValue("errors"),
+        attributes.getValue("skipped"), attributes.getValue("time"));
+  }
+
+  /**
+   * Reads the totals of the first testsuite element and stops there
+   */
+  private static class SummaryReader extends DefaultHandler {
+    private final ReportSummary summary;
+    private boolean             found;
+
+    SummaryReader(String className) {
+      this.summary = new ReportSummary(className);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+      if ("testsuite".equals(name)) {
+        addTotals(summary, attributes);
+        found = true;
+        throw new SAXException("done");
+      }
+    }
+  }
+
+  /**
+   * Failure to write the cleaned report, as opposed to a report that can't
+   * be parsed
+   */
+  private static class WriteException extends SAXException {
+    private static final long serialVersionUID = 1L;
+
+    WriteException(IOException cause) {
+      super(cause);
+    }
+  }
+
+  /**
+   * Same test as String.trim().length() == 0 without creating the String
+   */
+  private static boolean isWhitespace(char[] ch, int start, int length) {
+    for (int i = start; i < start + length; i++) {
+      if (ch[i] > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String entityFor(char character) {
+    switch (character) {
+      case '<':
+        return "&lt;";
+      case '>':
+        return "&gt;";
+      case '\"':
+        return "&quot;";
+      case '\'':
+        return "&#039;";
+      case '&':
+        return "&amp;";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Appends the escaped range, copying runs of characters that need no
+   * escaping in one go
+   */
+  static void escapeXML(char[] ch, int start, int length, StringBuilder result) {
+    int end = start + length;
+    int run = start;
+    for (int i = start; i < end; i++) {
+      String entity = entityFor(ch[i]);
+      if (entity != null) {
+        result.append(ch, run, i - run).append(entity);
+        run = i + 1;
+      }
+    }
+    result.append(ch, run, end - run);
+  }
+
+  static void escapeXML(char[] ch, int start, int length, Writer result) throws IOException {
+    int end = start + length;
+    int run = start;
+    for (int i = start; i < end; i++) {
+      String entity = entityFor(ch[i]);
+      if (entity != null) {
+        result.write(ch, run, i - run);
+        result.write(entity);
+        run = i + 1;
+      }
+    }
+    result.write(ch, run, end - run);
+  }
+
+  static void escapeXML(String s, Writer result) throws IOException {
+    int length = s.length();
+    int run = 0;
+    for (int i = 0; i < length; i++) {
+      String entity = entityFor(s.charAt(i));
+      if (entity != null) {
+        result.write(s, run, i - run);
+        result.write(entity);
+        run = i + 1;
       }
-      character = iterator.next();
     }
-    return result.toString();
+    result.write(s, run, length - run);
   }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of the JVMs forked to pound a test without restarting the JVM
+ * for every iteration. It runs the given JUnit 4 test classes over and over,
+ * reporting every iteration on stdout so the plugin can follow it:
+ *
+ * <pre>
+ * ##pound## &lt;iteration&gt; PASSED|FAILED &lt;millis&gt;
+ * ##pound-trace## &lt;failure trace line&gt;
+ * </pre>
+ *
+ * Arguments: first iteration number, number of iterations, deadline (epoch
+ * millis, 0 for none), stop on failure (true/false), then the test classes,
+ * each optionally followed by #method.
+ *
+ * JUnit is only known through reflection: this class is loaded from the plugin
+ * jar, next to the project test classpath, and must only depend on the JDK.
+ */
+public final class PoundRunner {
+  public static final String ITERATION_PREFIX = "##pound## ";
+  public static final String TRACE_PREFIX     = "##pound-trace## ";
+
+  private PoundRunner() {
+    //
+  }
+
+  public static void main(String[] args) throws Exception {
+    int first = Integer.parseInt(args[0]);
+    int count = Integer.parseInt(args[1]);
+    long deadline = Long.parseLong(args[2]);
+    boolean stopOnFailure = Boolean.parseBoolean(args[3]);
+
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    Class<?> requestClass = loader.loadClass("org.junit.runner.Request");
+    Class<?> coreClass = loader.loadClass("org.junit.runner.JUnitCore");
+    Method run = coreClass.getMethod("run", requestClass);
+    List<Object> requests = new ArrayList<Object>();
+    for (int i = 4; i < args.length; i++) {
+      String[] test = args[i].split("#", 2);
+      Class<?> testClass = loader.loadClass(test[0]);
+      if (test.length == 2) {
+        requests.add(requestClass.getMethod("method", Class.class, String.class).invoke(null, testClass, test[1]));
+      } else {
+        requests.add(requestClass.getMethod("aClass", Class.class).invoke(null, testClass));
+      }
+    }
+
+    // the tests may replace System.out
+    PrintStream out = System.out;
+    boolean failed = false;
+    for (long iteration = first; iteration < (long) first + count; iteration++) {
+      if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+        break;
+      }
+      long start = System.nanoTime();
+      List<String> traces = new ArrayList<String>();
+      for (Object request : requests) {
+        Object result;
+        try {
+          result = run.invoke(coreClass.getConstructor().newInstance(), request);
+        } catch (Throwable t) {
+          traces.add(trace(t));
+          continue;
+        }
+        for (Object failure : (List<?>) result.getClass().getMethod("getFailures").invoke(result)) {
+          traces.add(failure.toString() + "\n" + failure.getClass().getMethod("getTrace").invoke(failure));
+        }
+      }
+      long millis = (System.nanoTime() - start) / 1000000;
+      synchronized (out) {
+        for (String trace : traces) {
+          for (String line : trace.split("\r?\n")) {
+            out.println(TRACE_PREFIX + line);
+          }
+        }
+        out.println(ITERATION_PREFIX + iteration + (traces.isEmpty() ? " PASSED " : " FAILED ") + millis);
+        out.flush();
+      }
+      failed |= !traces.isEmpty();
+      if (failed && stopOnFailure) {
+        break;
+      }
+    }
+    // don't wait for threads the tests may have left behind
+    System.exit(failed ? 1 : 0);
+  }
+
+  private static String trace(Throwable t) {
+    StringWriter sw = new StringWriter();
+    t.printStackTrace(new PrintWriter(sw));
+    return sw.toString();
+  }
+}
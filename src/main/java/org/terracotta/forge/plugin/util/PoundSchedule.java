@@ -0,0 +1,51 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the iterations of a pound run to the pounding threads, in batches
+ * of consecutive iterations, thread safe.
+ *
+ * A run without an iteration count (pounding for some minutes or until
+ * failure) is split in batches of {@link #UNBOUNDED_BATCH} iterations, so
+ * every thread gets work instead of the first one claiming it all.
+ */
+public class PoundSchedule {
+  public static final int  UNBOUNDED_BATCH = 1000;
+
+  private final AtomicLong next            = new AtomicLong(1);
+  private final int        maxIterations;
+  private final int        batch;
+
+  /**
+   * @param maxIterations number of iterations, Integer.MAX_VALUE for no limit
+   * @param threads number of pounding threads
+   * @param iterationsPerFork iterations per batch, 0 to split the iterations
+   *          evenly between the threads
+   */
+  public PoundSchedule(int maxIterations, int threads, int iterationsPerFork) {
+    this.maxIterations = maxIterations;
+    this.batch = iterationsPerFork > 0 ? iterationsPerFork
+        : maxIterations == Integer.MAX_VALUE ? UNBOUNDED_BATCH : (maxIterations + threads - 1) / threads;
+  }
+
+  /**
+   * @return the first iteration of the next batch, 0 when all iterations were
+   *         handed out
+   */
+  public int nextBatch() {
+    long first = next.getAndAdd(batch);
+    return first <= maxIterations ? (int) first : 0;
+  }
+
+  /**
+   * @return the number of iterations in the batch starting at first
+   */
+  public int batchSize(int first) {
+    return (int) Math.min(batch, (long) maxIterations - first + 1);
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Outcome and duration of pounding iterations, thread safe.
+ *
+ * The failure rate comes with a 95% Wilson score interval, which stays
+ * meaningful for the small failure counts pounding usually gives: two runs
+ * whose intervals don't overlap really have different failure rates.
+ *
+ * Pounding for hours runs millions of iterations, so the duration percentiles
+ * are taken from a uniform sample of {@link #SAMPLE_SIZE} iterations (reservoir
+ * sampling), exact below that. The min and max durations are always exact.
+ */
+public class PoundStatistics {
+  public static final int          SAMPLE_SIZE      = 10000;
+  private static final double      Z                = 1.96;
+
+  private final long[]             sample           = new long[SAMPLE_SIZE];
+  private final Random             random           = new Random();
+  private int                      iterations;
+  private long                     minDuration      = Long.MAX_VALUE;
+  private long                     maxDuration      = Long.MIN_VALUE;
+  private final SortedSet<Integer> failedIterations = new TreeSet<Integer>();
+
+  public synchronized void record(int iteration, long durationMillis, boolean passed) {
+    iterations++;
+    if (iterations <= SAMPLE_SIZE) {
+      sample[iterations - 1] = durationMillis;
+    } else {
+      // every iteration so far has the same chance to be in the sample
+      int slot = random.nextInt(iterations);
+      if (slot < SAMPLE_SIZE) {
+        sample[slot] = durationMillis;
+      }
+    }
+    minDuration = Math.min(minDuration, durationMillis);
+    maxDuration = Math.max(maxDuration, durationMillis);
+    if (!passed) {
+      failedIterations.add(iteration);
+    }
+  }
+
+  public synchronized int getIterations() {
+    return iterations;
+  }
+
+  public synchronized int getFailed() {
+    return failedIterations.size();
+  }
+
+  public synchronized int getPassed() {
+    return iterations - failedIterations.size();
+  }
+
+  public synchronized List<Integer> getFailedIterations() {
+    return new ArrayList<Integer>(failedIterations);
+  }
+
+  public synchronized double getFailureRate() {
+    return iterations == 0 ? 0 : (double) failedIterations.size() / iterations;
+  }
+
+  /**
+   * @return the lower and upper bounds of the 95% confidence interval of the
+   *         failure rate
+   */
+  public synchronized double[] getFailureRateInterval() {
+    int n = iterations;
+    if (n == 0) {
+      return new double[] { 0, 1 };
+    }
+    double p = getFailureRate();
+    double denominator = 1 + Z * Z / n;
+    double center = (p + Z * Z / (2 * n)) / denominator;
+    double halfWidth = Z * Math.sqrt(p * (1 - p) / n + Z * Z / (4.0 * n * n)) / denominator;
+    return new double[] { Math.max(0, center - halfWidth), Math.min(1, center + halfWidth) };
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the iteration duration at the given percentile (nearest rank) of
+   *         the sampled iterations, 0 if nothing was recorded
+   */
+  public synchronized long getDurationPercentile(double percentile) {
+    if (iterations == 0) {
+      return 0;
+    }
+    if (percentile <= 0) {
+      return minDuration;
+    }
+    if (percentile >= 100) {
+      return maxDuration;
+    }
+    long[] sorted = Arrays.copyOf(sample, Math.min(iterations, SAMPLE_SIZE));
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+  }
+
+  /**
+   * Writes the statistics as a properties file
+   */
+  public synchronized void write(File file, String test, long elapsedMillis) throws IOException {
+    double[] interval = getFailureRateInterval();
+    File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    PrintWriter writer = null;
+    try {
+      writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.ISO_8859_1));
+      writer.print("test=" + test + "\n");
+      writer.print("iterations=" + getIterations() + "\n");
+      writer.print("passed=" + getPassed() + "\n");
+      writer.print("failed=" + getFailed() + "\n");
+      writer.print("failedIterations=" + join(failedIterations) + "\n");
+      writer.print("failureRate=" + format(getFailureRate()) + "\n");
+      writer.print("failureRate95Low=" + format(interval[0]) + "\n");
+      writer.print("failureRate95High=" + format(interval[1]) + "\n");
+      writer.print("durationMinMillis=" + getDurationPercentile(0) + "\n");
+      writer.print("durationMedianMillis=" + getDurationPercentile(50) + "\n");
+      writer.print("durationP99Millis=" + getDurationPercentile(99) + "\n");
+      writer.print("durationMaxMillis=" + getDurationPercentile(100) + "\n");
+      writer.print("elapsedMillis=" + elapsedMillis + "\n");
+      writer.close();
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + tmpFile);
+      }
+      Util.moveAtomically(tmpFile, file);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      tmpFile.delete();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    double[] interval = getFailureRateInterval();
+    return getIterations() + " iterations, " + getFailed() + " failed, failure rate " + format(getFailureRate())
+           + " (95% CI " + format(interval[0]) + " - " + format(interval[1]) + "), duration min/median/p99 "
+           + getDurationPercentile(0) + "/" + getDurationPercentile(50) + "/" + getDurationPercentile(99) + " ms";
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.5f", value);
+  }
+
+  private static String join(SortedSet<Integer> values) {
+    StringBuilder sb = new StringBuilder();
+    for (Integer value : values) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(value);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.maven.plugin.surefire.extensions.SurefireStatelessTestsetInfoReporter;
+import org.apache.maven.plugin.surefire.log.api.ConsoleLogger;
+import org.apache.maven.plugin.surefire.report.TestSetStats;
+import org.apache.maven.plugin.surefire.report.WrappedReportEntry;
+import org.apache.maven.surefire.api.report.TestSetReportEntry;
+import org.apache.maven.surefire.extensions.StatelessTestsetInfoConsoleReportEventListener;
+import org.apache.maven.surefire.extensions.StatelessTestsetInfoFileReportEventListener;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Surefire test set reporter feeding a {@link TestProgress} on the way to the
+ * configured reporter. Surefire creates a console listener per fork, which is
+ * how the progress of every fork is told apart.
+ *
+ * Only works with forked tests: the reporters of an in process run are cloned
+ * in another class loader, and get the configured reporter instead.
+ */
+public class ProgressReporter extends SurefireStatelessTestsetInfoReporter {
+  private final SurefireStatelessTestsetInfoReporter delegate;
+  private final TestProgress                         progress;
+
+  public ProgressReporter(SurefireStatelessTestsetInfoReporter delegate, TestProgress progress) {
+    this.delegate = delegate;
+    this.progress = progress;
+  }
+
+  public SurefireStatelessTestsetInfoReporter getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public StatelessTestsetInfoConsoleReportEventListener<WrappedReportEntry, TestSetStats> createListener(ConsoleLogger logger) {
+    return new ProgressListener(logger, delegate.createListener(logger), progress.newFork());
+  }
+
+  @Override
+  public StatelessTestsetInfoFileReportEventListener<WrappedReportEntry, TestSetStats> createListener(File reportsDirectory,
+                                                                                                     String reportNameSuffix,
+                                                                                                     Charset encoding) {
+    return delegate.createListener(reportsDirectory, reportNameSuffix, encoding);
+  }
+
+  @Override
+  public Object clone(ClassLoader target) {
+    return delegate.clone(target);
+  }
+
+  @Override
+  public boolean isDisable() {
+    return delegate.isDisable();
+  }
+
+  @Override
+  public void setDisable(boolean disable) {
+    delegate.setDisable(disable);
+  }
+
+  @Override
+  public String toString() {
+    return "ProgressReporter{delegate=" + delegate + "}";
+  }
+
+  private static class ProgressListener extends
+      StatelessTestsetInfoConsoleReportEventListener<WrappedReportEntry, TestSetStats> {
+    private final StatelessTestsetInfoConsoleReportEventListener<WrappedReportEntry, TestSetStats> delegate;
+    private final TestProgress.Fork                                                             fork;
+
+    ProgressListener(ConsoleLogger logger,
+                     StatelessTestsetInfoConsoleReportEventListener<WrappedReportEntry, TestSetStats> delegate,
+                     TestProgress.Fork fork) {
+      super(logger);
+      this.delegate = delegate;
+      this.fork = fork;
+    }
+
+    @Override
+    public void testSetStarting(TestSetReportEntry report) {
+      fork.started(report.getSourceName());
+      delegate.testSetStarting(report);
+    }
+
+    @Override
+    public void testSetCompleted(WrappedReportEntry report, TestSetStats stats, List<String> testResults) {
+      fork.completed(stats.getCompletedCount(), stats.getErrors() + stats.getFailures(), stats.getSkipped());
+      delegate.testSetCompleted(report, stats, testResults);
+    }
+
+    @Override
+    public void reset() {
+      delegate.reset();
+    }
+  }
+}
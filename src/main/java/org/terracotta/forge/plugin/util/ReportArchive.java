@@ -0,0 +1,78 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs a reports directory into a single compressed zip so it can be archived
+ * as one file instead of thousands of small ones.
+ *
+ * Entries are stored under the name of the reports directory with their
+ * relative path and modification time, so unzipping the archive gives back the
+ * original layout. The zip central directory serves as the index of the
+ * archive.
+ */
+public final class ReportArchive {
+  private static final String OUTPUT_SUFFIX = "-output.txt";
+
+  private ReportArchive() {
+    //
+  }
+
+  /**
+   * @param includeOutputs also pack the captured test output files
+   *          (*-output.txt), which are usually the bulk of the directory
+   * @return the number of files archived
+   */
+  public static int write(File reportsDir, File archive, boolean includeOutputs) throws IOException {
+    Path root = reportsDir.toPath();
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(root)) {
+      files = walk.filter(Files::isRegularFile).filter(path -> accept(path, includeOutputs)).sorted()
+          .collect(Collectors.toList());
+    }
+
+    File tmpFile = File.createTempFile(archive.getName(), ".tmp", archive.getAbsoluteFile().getParentFile());
+    ZipOutputStream out = null;
+    try {
+      out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+      for (Path file : files) {
+        String name = reportsDir.getName() + "/" + root.relativize(file).toString().replace(File.separatorChar, '/');
+        ZipEntry entry = new ZipEntry(name);
+        entry.setLastModifiedTime(Files.getLastModifiedTime(file));
+        out.putNextEntry(entry);
+        Files.copy(file, out);
+        out.closeEntry();
+      }
+      out.close();
+      Util.moveAtomically(tmpFile, archive);
+    } finally {
+      IOUtils.closeQuietly(out);
+      tmpFile.delete();
+    }
+    return files.size();
+  }
+
+  private static boolean accept(Path path, boolean includeOutputs) {
+    String name = path.getFileName().toString();
+    if (name.equals(CleanedReportIndex.FILENAME) || name.endsWith(".tmp")) {
+      return false;
+    }
+    return includeOutputs || !name.endsWith(OUTPUT_SUFFIX);
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tells from the raw bytes of a report whether {@link JUnitReportCleaner} can
+ * leave it as is without parsing it: a complete UTF-8 report, well-formed as
+ * far as a byte scan can tell (legal bytes, balanced tags, quoted attribute
+ * values, predefined entities), with no element to drop and no element to
+ * truncate that is longer than the kept tail.
+ *
+ * Whatever the scan doesn't follow, such as a DOCTYPE or nested elements in an
+ * element to truncate, goes through the parser like a broken report does.
+ * Not thread safe
+ */
+class ReportScanner {
+  private static final byte[] ROOT_END_TAG   = "</testsuite>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] COMMENT_START  = "<!--".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CDATA_START    = "<![CDATA[".getBytes(StandardCharsets.US_ASCII);
+  private static final int    MAX_ENTITY     = 8;
+
+  // states of needsCleaning
+  private static final int    TEXT           = 0;
+  private static final int    START_TAG_NAME = 1;
+  private static final int    START_TAG      = 2;
+  private static final int    END_TAG_NAME   = 3;
+  private static final int    END_TAG        = 4;
+  private static final int    COMMENT        = 5;
+  private static final int    CDATA          = 6;
+  private static final int    PI             = 7;
+
+  private final ByteBuffer    buffer;
+  private byte[][]            droppedTags    = new byte[0][];
+  private byte[][]            truncatedTags  = new byte[0][];
+  private int                 tailSize;
+  // bytes after a '<' needed to tell what starts there
+  private int                 lookahead      = CDATA_START.length;
+
+  ReportScanner(int bufferSize) {
+    buffer = ByteBuffer.allocate(bufferSize);
+  }
+
+  /**
+   * @param dropped the elements to remove
+   * @param truncated the elements to cut down to their last tailSize
+   *          characters
+   */
+  void setElements(Collection<String> dropped, Collection<String> truncated, int tailSize) {
+    droppedTags = startTags(dropped);
+    truncatedTags = startTags(truncated);
+    this.tailSize = tailSize;
+    lookahead = CDATA_START.length;
+    for (byte[] tag : droppedTags) {
+      lookahead = Math.max(lookahead, tag.length + 1);
+    }
+    for (byte[] tag : truncatedTags) {
+      lookahead = Math.max(lookahead, tag.length + 1);
+    }
+  }
+
+  private static byte[][] startTags(Collection<String> elements) {
+    byte[][] tags = new byte[elements.size()][];
+    int i = 0;
+    for (String element : elements) {
+      tags[i++] = ("<" + element).getBytes(StandardCharsets.UTF_8);
+    }
+    return tags;
+  }
+
+  /**
+   * Elements already truncated to the tail are left alone, so that cleaning a
+   * report again doesn't rewrite it
+   *
+   * @return false if the report can be left as is, true if it must be parsed
+   */
+  boolean needsCleaning(File report) throws IOException {
+    FileChannel channel = FileChannel.open(report.toPath(), StandardOpenOption.READ);
+    try {
+      return !endsWithRootEndTag(channel) || needsCleaning(channel);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private boolean needsCleaning(FileChannel channel) throws IOException {
+    byte[] bytes = buffer.array();
+    buffer.clear();
+    channel.position(0);
+    int state = TEXT;
+    List<String> openElements = new ArrayList<String>();
+    boolean rootClosed = false;
+    StringBuilder name = new StringBuilder();
+    StringBuilder entity = new StringBuilder();
+    boolean inEntity = false;
+    byte quote = 0;
+    // matched bytes of the end of a comment, CDATA section or PI
+    int endMarker = 0;
+    int continuationBytes = 0;
+    // in the start tag or the text of an element to truncate
+    boolean truncating = false;
+    long chars = 0;
+    byte previous = 0;
+    while (true) {
+      boolean eof = channel.read(buffer) < 0;
+      int limit = buffer.position();
+      // keep what could be the start of a tag for the next round
+      int scanLimit = eof ? limit : limit - lookahead;
+      int i = 0;
+      for (; i < scanLimit; i++) {
+        byte b = bytes[i];
+        if (continuationBytes > 0) {
+          if ((b & 0xc0) != 0x80) {
+            return true;
+          }
+          continuationBytes--;
+        } else if (b < 0) {
+          int lead = b & 0xff;
+          if (lead >= 0xc2 && lead <= 0xdf) {
+            continuationBytes = 1;
+          } else if (lead >= 0xe0 && lead <= 0xef) {
+            continuationBytes = 2;
+          } else if (lead >= 0xf0 && lead <= 0xf4) {
+            continuationBytes = 3;
+          } else {
+            return true;
+          }
+        } else if (b < ' ' && !isWhitespace(b)) {
+          // not allowed in xml 1.0, typically test output written as is
+          return true;
+        }
+
+        if (inEntity) {
+          if (b == ';') {
+            if (!isPredefinedEntity(entity)) {
+              return true;
+            }
+            inEntity = false;
+          } else if (entity.length() == MAX_ENTITY) {
+            return true;
+          } else {
+            entity.append((char) b);
+          }
+        } else if (state == TEXT) {
+          if (b == '<') {
+            boolean endTag = i + 1 < limit && bytes[i + 1] == '/';
+            if (truncating && !endTag) {
+              // nested elements, comments or CDATA go through the parser
+              return true;
+            }
+            truncating = false;
+            if (endTag) {
+              state = END_TAG_NAME;
+              name.setLength(0);
+              i++;
+            } else if (startsWith(COMMENT_START, bytes, i, limit)) {
+              state = COMMENT;
+              endMarker = 0;
+              i += COMMENT_START.length - 1;
+            } else if (startsWith(CDATA_START, bytes, i, limit)) {
+              if (openElements.isEmpty()) {
+                return true;
+              }
+              state = CDATA;
+              endMarker = 0;
+              i += CDATA_START.length - 1;
+            } else if (i + 1 < limit && bytes[i + 1] == '?') {
+              state = PI;
+              endMarker = 0;
+              i++;
+            } else if (rootClosed || startsTag(droppedTags, bytes, i, limit)) {
+              return true;
+            } else {
+              truncating = startsTag(truncatedTags, bytes, i, limit);
+              state = START_TAG_NAME;
+              name.setLength(0);
+            }
+          } else if (openElements.isEmpty()) {
+            if (!isWhitespace(b)) {
+              // outside of the root element, or a byte order mark
+              return true;
+            }
+          } else if (b == '&') {
+            inEntity = true;
+            entity.setLength(0);
+            if (truncating && ++chars > tailSize) {
+              return true;
+            }
+          } else if (truncating && (b & 0xc0) != 0x80) {
+            // counts chars, not bytes, a 4 byte sequence being a surrogate pair
+            chars += (b & 0xf8) == 0xf0 ? 2 : 1;
+            if (chars > tailSize) {
+              return true;
+            }
+          }
+        } else if (state == START_TAG_NAME || state == START_TAG) {
+          if (state == START_TAG_NAME) {
+            if (isNameByte(b)) {
+              name.append((char) (b & 0xff));
+              previous = b;
+              continue;
+            }
+            if (name.length() == 0) {
+              return true;
+            }
+            state = START_TAG;
+          }
+          if (quote != 0) {
+            // '>' is allowed in attribute values, '<' isn't
+            if (b == quote) {
+              quote = 0;
+            } else if (b == '<') {
+              return true;
+            } else if (b == '&') {
+              inEntity = true;
+              entity.setLength(0);
+            }
+          } else if (b == '"' || b == '\'') {
+            quote = b;
+          } else if (b == '>') {
+            if (previous == '/') {
+              // nothing to truncate in an empty element
+              truncating = false;
+              rootClosed = openElements.isEmpty();
+            } else {
+              openElements.add(name.toString());
+            }
+            chars = 0;
+            state = TEXT;
+          } else if (b == '<' || b == '&') {
+            return true;
+          }
+        } else if (state == END_TAG_NAME || state == END_TAG) {
+          if (state == END_TAG_NAME) {
+            if (isNameByte(b)) {
+              name.append((char) (b & 0xff));
+              previous = b;
+              continue;
+            }
+            state = END_TAG;
+          }
+          if (b == '>') {
+            if (openElements.isEmpty() || !openElements.remove(openElements.size() - 1).equals(name.toString())) {
+              return true;
+            }
+            rootClosed = openElements.isEmpty();
+            state = TEXT;
+          } else if (!isWhitespace(b)) {
+            return true;
+          }
+        } else {
+          // comment, CDATA or PI, ended by -->, ]]> or ?>
+          byte marker = state == COMMENT ? (byte) '-' : state == CDATA ? (byte) ']' : (byte) '?';
+          int markerLength = state == PI ? 1 : 2;
+          if (b == '>' && endMarker >= markerLength) {
+            state = TEXT;
+          }
+          endMarker = b == marker ? endMarker + 1 : 0;
+        }
+        previous = b;
+      }
+      if (eof) {
+        return state != TEXT || !rootClosed || inEntity || continuationBytes > 0;
+      }
+      buffer.flip();
+      buffer.position(i);
+      buffer.compact();
+    }
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  private static boolean isNameByte(byte b) {
+    return !isWhitespace(b) && b != '>' && b != '/' && b != '<' && b != '=' && b != '"' && b != '\'' && b != '&';
+  }
+
+  private static boolean isPredefinedEntity(CharSequence entity) {
+    String name = entity.toString();
+    if (name.equals("lt") || name.equals("gt") || name.equals("amp") || name.equals("quot") || name.equals("apos")) {
+      return true;
+    }
+    boolean hex = name.startsWith("#x");
+    int start = hex ? 2 : 1;
+    if (!name.startsWith("#") || name.length() == start) {
+      return false;
+    }
+    for (int i = start; i < name.length(); i++) {
+      if (Character.digit(name.charAt(i), hex ? 16 : 10) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean startsWith(byte[] prefix, byte[] bytes, int offset, int limit) {
+    if (offset + prefix.length > limit) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[offset + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean startsTag(byte[][] tags, byte[] bytes, int offset, int limit) {
+    for (byte[] tag : tags) {
+      int end = offset + tag.length;
+      if (end >= limit) {
+        continue;
+      }
+      // <system-out> or <system-out/> but not <system-output>
+      if (startsWith(tag, bytes, offset, limit) && (bytes[end] == '>' || bytes[end] == '/' || isWhitespace(bytes[end]))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean endsWithRootEndTag(FileChannel channel) throws IOException {
+    buffer.clear();
+    buffer.limit(Math.min(buffer.capacity(), 256));
+    long start = Math.max(0, channel.size() - buffer.limit());
+    channel.position(start);
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      // keep reading
+    }
+    byte[] bytes = buffer.array();
+    int end = buffer.position();
+    while (end > 0 && isWhitespace(bytes[end - 1])) {
+      end--;
+    }
+    return end >= ROOT_END_TAG.length && startsWith(ROOT_END_TAG, bytes, end - ROOT_END_TAG.length, end);
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Totals of one junit report (test class), as found in its testsuite element
+ *
+ * A module's summaries are written to a single csv file, so that tools don't
+ * have to parse every report to know what ran and what failed.
+ */
+public class ReportSummary {
+  public static final String FILENAME = "test-summary.csv";
+  private static final String HEADER  = "class,tests,failures,errors,skipped,time,synthesized";
+
+  private final String        className;
+  private int                 tests;
+  private int                 failures;
+  private int                 errors;
+  private int                 skipped;
+  private double              time;
+  private boolean             synthesized;
+
+  public ReportSummary(String className) {
+    this.className = className;
+  }
+
+  public ReportSummary(String className, int tests, int failures, int errors, int skipped, double time,
+                       boolean synthesized) {
+    this.className = className;
+    this.tests = tests;
+    this.failures = failures;
+    this.errors = errors;
+    this.skipped = skipped;
+    this.time = time;
+    this.synthesized = synthesized;
+  }
+
+  /**
+   * Adds the totals of a testsuite element, given the values of its
+   * attributes. Missing or unreadable values count as 0
+   */
+  public void add(String tests, String failures, String errors, String skipped, String time) {
+    this.tests += parseInt(tests);
+    this.failures += parseInt(failures);
+    this.errors += parseInt(errors);
+    this.skipped += parseInt(skipped);
+    this.time += parseDouble(time);
+  }
+
+  public String getClassName() {
+    return className;
+  }
+
+  public int getTests() {
+    return tests;
+  }
+
+  public int getFailures() {
+    return failures;
+  }
+
+  public int getErrors() {
+    return errors;
+  }
+
+  public int getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * @return the duration in seconds
+   */
+  public double getTime() {
+    return time;
+  }
+
+  /**
+   * @return true if the report was replaced by a generic error report, ie the
+   *         test timed out or crashed
+   */
+  public boolean isSynthesized() {
+    return synthesized;
+  }
+
+  public boolean isFailed() {
+    return failures > 0 || errors > 0 || synthesized;
+  }
+
+  /**
+   * @return the summary as a csv line, without line separator
+   */
+  public String toCsv() {
+    return className + "," + tests + "," + failures + "," + errors + "," + skipped + ","
+           + String.format(Locale.ROOT, "%.3f", time) + "," + synthesized;
+  }
+
+  /**
+   * @return the summary read from a csv line, or null if the line isn't one
+   */
+  public static ReportSummary fromCsv(String line) {
+    String[] fields = line.split(",");
+    if (fields.length != 7 || HEADER.equals(line)) {
+      return null;
+    }
+    try {
+      return new ReportSummary(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+          Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Double.parseDouble(fields[5]),
+          Boolean.parseBoolean(fields[6]));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  public static void write(File file, Collection<ReportSummary> summaries) throws IOException {
+    File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    PrintWriter writer = null;
+    try {
+      writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8));
+      writer.print(HEADER + "\n");
+      for (ReportSummary summary : summaries) {
+        writer.print(summary.toCsv() + "\n");
+      }
+      writer.close();
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + tmpFile);
+      }
+      Util.moveAtomically(tmpFile, file);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      tmpFile.delete();
+    }
+  }
+
+  public static List<ReportSummary> read(File file) throws IOException {
+    List<ReportSummary> summaries = new ArrayList<ReportSummary>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        ReportSummary summary = fromCsv(line);
+        if (summary != null) {
+          summaries.add(summary);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return summaries;
+  }
+
+  private static int parseInt(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static double parseDouble(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      // older surefire versions wrote times with grouping separators
+      return Double.parseDouble(value.trim().replace(",", ""));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return toCsv();
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reuses SAX parsers instead of looking up a factory and building a parser
+ * for every document.
+ *
+ * Each thread gets its own parser, which is reset when it is released. The
+ * pool isn't reentrant: a thread must release its parser before acquiring it
+ * again.
+ */
+public final class SAXParserPool {
+  private static final SAXParserFactory      FACTORY = SAXParserFactory.newInstance();
+  private static final ThreadLocal<SAXParser> PARSERS = ThreadLocal.withInitial(SAXParserPool::newParser);
+
+  private SAXParserPool() {
+    //
+  }
+
+  /**
+   * @return the parser of the calling thread, in its initial configuration
+   */
+  public static SAXParser acquire() {
+    return PARSERS.get();
+  }
+
+  /**
+   * Resets the parser so it can be handed out again and doesn't hold on to
+   * the last handler and document
+   */
+  public static void release(SAXParser parser) {
+    try {
+      parser.reset();
+    } catch (UnsupportedOperationException e) {
+      // can't be reused
+      PARSERS.remove();
+    }
+  }
+
+  private static SAXParser newParser() {
+    // SAXParserFactory isn't thread safe
+    synchronized (FACTORY) {
+      try {
+        return FACTORY.newSAXParser();
+      } catch (ParserConfigurationException e) {
+        throw new RuntimeException(e);
+      } catch (SAXException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -4,4 +4,13 @@ public class SCMInfo {
     public String url = Util.UNKNOWN;
     public String branch = Util.UNKNOWN;
     public String revision = Util.UNKNOWN;
+
+    public SCMInfo() {
+    }
+
+    public SCMInfo(SCMInfo other) {
+        this.url = other.url;
+        this.branch = other.branch;
+        this.revision = other.revision;
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+/**
+ * Fixed size ring buffer keeping the last characters appended to it
+ */
+public class TailBuffer {
+  private final char[] buffer;
+  private int          end;
+  private long         total;
+
+  public TailBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.buffer = new char[capacity];
+  }
+
+  public void append(char[] ch, int start, int length) {
+    total += length;
+    if (length >= buffer.length) {
+      System.arraycopy(ch, start + length - buffer.length, buffer, 0, buffer.length);
+      end = 0;
+      return;
+    }
+    int first = Math.min(length, buffer.length - end);
+    System.arraycopy(ch, start, buffer, end, first);
+    System.arraycopy(ch, start + first, buffer, 0, length - first);
+    end = (end + length) % buffer.length;
+  }
+
+  public int length() {
+    return (int) Math.min(total, buffer.length);
+  }
+
+  /**
+   * @return how many characters were pushed out of the buffer
+   */
+  public long dropped() {
+    return total - length();
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Copies the kept characters, oldest first
+   *
+   * @return the number of characters copied
+   */
+  public int getChars(char[] dest) {
+    int length = length();
+    int start = (end - length + buffer.length) % buffer.length;
+    int first = Math.min(length, buffer.length - start);
+    System.arraycopy(buffer, start, dest, 0, first);
+    System.arraycopy(buffer, 0, dest, first, length - first);
+    return length;
+  }
+
+  public void clear() {
+    end = 0;
+    total = 0;
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.ArrayMemberValue;
+import javassist.bytecode.annotation.ClassMemberValue;
+import javassist.bytecode.annotation.MemberValue;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of the JUnit categories of the compiled test classes, read from the
+ * class files instead of a reflections.xml dump.
+ *
+ * Only the class level @Category annotation is looked at, as the reflections
+ * TypeAnnotationsScanner did. The index is cached in a small tab separated
+ * file, one line per class file with its size, modification time and
+ * categories, so that only the class files that changed since the last build
+ * are read again.
+ */
+public class TestCategoryIndex {
+  public static final String  FILENAME = "test-categories.idx";
+  private static final String HEADER   = "# test categories v1";
+  private static final String CATEGORY = "org.junit.experimental.categories.Category";
+
+  private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+  private int                      scanned;
+
+  private TestCategoryIndex() {
+    //
+  }
+
+  /**
+   * Brings the index of the given test classes directory up to date, reading
+   * only the class files that aren't in the cache or changed since
+   */
+  public static TestCategoryIndex update(File testClassesDir, File cacheFile, Log log) throws IOException {
+    Map<String, Entry> cached = load(cacheFile, log);
+    TestCategoryIndex index = new TestCategoryIndex();
+    if (testClassesDir.isDirectory()) {
+      Path root = testClassesDir.toPath();
+      List<Path> classFiles;
+      try (Stream<Path> walk = Files.walk(root)) {
+        classFiles = walk.filter(path -> path.getFileName().toString().endsWith(".class")).collect(Collectors.toList());
+      }
+      for (Path classFile : classFiles) {
+        String name = root.relativize(classFile).toString().replace(File.separatorChar, '/');
+        File file = classFile.toFile();
+        Entry entry = cached.get(name);
+        if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) {
+          entry = new Entry(file.length(), file.lastModified(), readCategories(file));
+          index.scanned++;
+        }
+        index.entries.put(name, entry);
+      }
+    }
+    if (index.scanned > 0 || cached.size() != index.entries.size()) {
+      index.save(cacheFile);
+    }
+    return index;
+  }
+
+  /**
+   * @return the number of class files read during the last update
+   */
+  public int getScanned() {
+    return scanned;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the names of the test classes annotated with @Category, sorted
+   */
+  public List<String> getCategorizedClasses() {
+    List<String> classes = new ArrayList<String>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (!entry.getValue().categories.isEmpty()) {
+        classes.add(toClassName(entry.getKey()));
+      }
+    }
+    return classes;
+  }
+
+  /**
+   * @return the categories of the given test class, empty if it has none
+   */
+  public List<String> getCategories(String className) {
+    Entry entry = entries.get(className.replace('.', '/') + ".class");
+    return entry != null ? entry.categories : Collections.<String> emptyList();
+  }
+
+  private static String toClassName(String path) {
+    return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+  }
+
+  static List<String> readCategories(File classFile) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)));
+    ClassFile cf;
+    try {
+      cf = new ClassFile(in);
+    } finally {
+      in.close();
+    }
+    AnnotationsAttribute attribute = (AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag);
+    Annotation category = attribute != null ? attribute.getAnnotation(CATEGORY) : null;
+    if (category == null) {
+      return Collections.emptyList();
+    }
+    List<String> categories = new ArrayList<String>();
+    MemberValue value = category.getMemberValue("value");
+    if (value instanceof ArrayMemberValue && ((ArrayMemberValue) value).getValue() != null) {
+      for (MemberValue element : ((ArrayMemberValue) value).getValue()) {
+        if (element instanceof ClassMemberValue) {
+          categories.add(((ClassMemberValue) element).getValue());
+        }
+      }
+    }
+    if (categories.isEmpty()) {
+      // @Category({}) still puts the class in a category as far as the
+      // reflections index is concerned
+      categories.add(CATEGORY);
+    }
+    return categories;
+  }
+
+  private static Map<String, Entry> load(File cacheFile, Log log) {
+    Map<String, Entry> cached = new HashMap<String, Entry>();
+    if (!cacheFile.isFile()) {
+      return cached;
+    }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8));
+      if (!HEADER.equals(reader.readLine())) {
+        log.debug("Ignoring " + cacheFile + " written by another version");
+        return cached;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 4) {
+          continue;
+        }
+        List<String> categories = fields[3].isEmpty() ? Collections.<String> emptyList()
+            : Collections.unmodifiableList(Arrays.asList(fields[3].split(",")));
+        cached.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), categories));
+      }
+    } catch (IOException | NumberFormatException e) {
+      log.warn("Unable to read " + cacheFile + ", all test classes will be scanned", e);
+      cached.clear();
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return cached;
+  }
+
+  private void save(File cacheFile) throws IOException {
+    File dir = cacheFile.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to mkdirs " + dir);
+    }
+    File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+    PrintWriter writer = null;
+    try {
+      writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8));
+      writer.print(HEADER + "\n");
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        writer.print(entry.getKey() + "\t" + entry.getValue().size + "\t" + entry.getValue().lastModified + "\t"
+                     + String.join(",", entry.getValue().categories) + "\n");
+      }
+      writer.close();
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + tmpFile);
+      }
+      Util.moveAtomically(tmpFile, cacheFile);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      tmpFile.delete();
+    }
+  }
+
+  private static class Entry {
+    final long         size;
+    final long         lastModified;
+    final List<String> categories;
+
+    Entry(long size, long lastModified, List<String> categories) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.categories = categories;
+    }
+  }
+}
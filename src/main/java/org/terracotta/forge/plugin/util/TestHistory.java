@@ -0,0 +1,158 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.surefire.api.runorder.RunEntryStatistics;
+import org.apache.maven.surefire.api.runorder.RunEntryStatisticsMap;
+import org.apache.maven.surefire.api.util.internal.ClassMethod;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Timing and failure history of the test classes of a module, one line per
+ * class with the number of builds it passed in a row since it last failed and
+ * its last duration.
+ *
+ * The history is fed from the report summaries and handed to surefire as a
+ * run order statistics file, so that its failedfirst and balanced run orders
+ * can use it. Surefire keeps such a file itself, but under a checksum of the
+ * whole configuration, which changes with every -Dtest, shard or include.
+ */
+public class TestHistory {
+  public static final String  FILENAME = "test-history";
+  private static final String HEADER   = "# test history v1";
+
+  private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+  /**
+   * @return the history kept in the given file, empty if there is none
+   */
+  public static TestHistory read(File file) throws IOException {
+    TestHistory history = new TestHistory();
+    if (!file.isFile()) {
+      return history;
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    try {
+      if (!HEADER.equals(reader.readLine())) {
+        return history;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 3) {
+          continue;
+        }
+        try {
+          history.entries.put(fields[0], new Entry(Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
+        } catch (NumberFormatException e) {
+          // skip the line
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return history;
+  }
+
+  /**
+   * Records a run of a test class. Classes that only had skipped tests are
+   * left alone, and a class that crashed or timed out before reporting its
+   * duration keeps the previous one
+   */
+  public void record(ReportSummary summary) {
+    if (summary.getTests() > 0 && summary.getTests() == summary.getSkipped()) {
+      return;
+    }
+    Entry previous = entries.get(summary.getClassName());
+    long millis = Math.round(summary.getTime() * 1000);
+    if (millis == 0 && previous != null) {
+      millis = previous.millis;
+    }
+    int successfulRuns = summary.isFailed() ? 0 : (previous != null ? previous.successfulRuns : 0) + 1;
+    entries.put(summary.getClassName(), new Entry(successfulRuns, millis));
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the number of builds the given class passed in a row, -1 if it
+   *         never ran
+   */
+  public int getSuccessfulRuns(String className) {
+    Entry entry = entries.get(className);
+    return entry != null ? entry.successfulRuns : -1;
+  }
+
+  /**
+   * @return the last duration of the given class in milliseconds, -1 if it
+   *         never ran
+   */
+  public long getMillis(String className) {
+    Entry entry = entries.get(className);
+    return entry != null ? entry.millis : -1;
+  }
+
+  public void write(File file) throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to mkdirs " + dir);
+    }
+    File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+    PrintWriter writer = null;
+    try {
+      writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8));
+      writer.print(HEADER + "\n");
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        writer.print(entry.getKey() + "\t" + entry.getValue().successfulRuns + "\t" + entry.getValue().millis + "\n");
+      }
+      writer.close();
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + tmpFile);
+      }
+      Util.moveAtomically(tmpFile, file);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      tmpFile.delete();
+    }
+  }
+
+  /**
+   * Writes the history as a surefire run order statistics file. Surefire
+   * keeps statistics by test method, the history has a single entry per class
+   */
+  public void writeRunOrderStatistics(File statisticsFile) throws IOException {
+    RunEntryStatisticsMap statistics = new RunEntryStatisticsMap();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      int runTime = (int) Math.min(Integer.MAX_VALUE, entry.getValue().millis);
+      statistics.add(new RunEntryStatistics(runTime, entry.getValue().successfulRuns,
+                                            new ClassMethod(entry.getKey(), "*")));
+    }
+    statistics.serialize(statisticsFile);
+  }
+
+  private static class Entry {
+    final int  successfulRuns;
+    final long millis;
+
+    Entry(int successfulRuns, long millis) {
+      this.successfulRuns = successfulRuns;
+      this.millis = millis;
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of the test classes run by the surefire forks, fed by
+ * {@link ProgressReporter} while the tests run.
+ *
+ * It is published as json, rewritten to a status file every few seconds and
+ * optionally served on a local http port, so that stuck forks and slow agents
+ * show before the end of a long run.
+ */
+public class TestProgress implements Closeable {
+  private final long               start = System.currentTimeMillis();
+  private final List<Fork>         forks = new CopyOnWriteArrayList<Fork>();
+  private ScheduledExecutorService scheduler;
+  private HttpServer               server;
+
+  /**
+   * @return the progress of a new fork, numbered from 1 in creation order
+   */
+  public Fork newFork() {
+    synchronized (forks) {
+      Fork fork = new Fork(forks.size() + 1);
+      forks.add(fork);
+      return fork;
+    }
+  }
+
+  /**
+   * Rewrites the status file every intervalSeconds unless it is 0, and serves
+   * the status on the loopback interface if port isn't null (0 for any free
+   * port)
+   */
+  public void start(final File statusFile, int intervalSeconds, Integer port, final Log log) throws IOException {
+    if (port != null) {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext("/", exchange -> {
+        byte[] json = toJson().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(json);
+        }
+      });
+      server.start();
+      log.info("Test progress served on http://" + server.getAddress().getHostString() + ":"
+               + server.getAddress().getPort() + "/");
+    }
+    if (intervalSeconds <= 0) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("test-progress-%d").setDaemon(true).build());
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        write(statusFile);
+      } catch (IOException e) {
+        log.debug("Unable to write " + statusFile, e);
+      }
+    }, 0, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    if (server != null) {
+      server.stop(0);
+    }
+  }
+
+  public void write(File statusFile) throws IOException {
+    File dir = statusFile.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to mkdirs " + dir);
+    }
+    File tmpFile = File.createTempFile(statusFile.getName(), ".tmp", dir);
+    try {
+      FileUtils.write(tmpFile, toJson(), StandardCharsets.UTF_8);
+      Util.moveAtomically(tmpFile, statusFile);
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  public String toJson() {
+    long now = System.currentTimeMillis();
+    int classesStarted = 0;
+    int classesCompleted = 0;
+    int testsCompleted = 0;
+    int testsFailed = 0;
+    int testsSkipped = 0;
+    StringBuilder forksJson = new StringBuilder();
+    for (Fork fork : forks) {
+      synchronized (fork) {
+        classesStarted += fork.classesStarted;
+        classesCompleted += fork.classesCompleted;
+        testsCompleted += fork.testsCompleted;
+        testsFailed += fork.testsFailed;
+        testsSkipped += fork.testsSkipped;
+        forksJson.append(forksJson.length() == 0 ? "\n" : ",\n");
+        forksJson.append("    {\"fork\": ").append(fork.number).append(", ");
+        appendCounts(forksJson, fork.classesStarted, fork.classesCompleted, fork.testsCompleted, fork.testsFailed,
+            fork.testsSkipped, perMinute(fork.classesCompleted, now - fork.started));
+        forksJson.append(", \"currentClass\": ").append(quote(fork.currentClass));
+        forksJson.append(", \"currentSeconds\": ")
+            .append(fork.currentClass != null ? (now - fork.currentStarted) / 1000 : 0).append('}');
+      }
+    }
+    StringBuilder json = new StringBuilder("{\n  \"updated\": \"").append(Instant.ofEpochMilli(now)).append('"');
+    json.append(",\n  \"elapsedSeconds\": ").append((now - start) / 1000).append(",\n  ");
+    appendCounts(json, classesStarted, classesCompleted, testsCompleted, testsFailed, testsSkipped,
+        perMinute(classesCompleted, now - start));
+    json.append(",\n  \"forks\": [").append(forksJson).append(forksJson.length() > 0 ? "\n  ]\n}\n" : "]\n}\n");
+    return json.toString();
+  }
+
+  private static void appendCounts(StringBuilder json, int classesStarted, int classesCompleted, int testsCompleted,
+                                   int testsFailed, int testsSkipped, double classesPerMinute) {
+    json.append("\"classesStarted\": ").append(classesStarted);
+    json.append(", \"classesCompleted\": ").append(classesCompleted);
+    json.append(", \"testsCompleted\": ").append(testsCompleted);
+    json.append(", \"testsFailed\": ").append(testsFailed);
+    json.append(", \"testsSkipped\": ").append(testsSkipped);
+    json.append(", \"classesPerMinute\": ").append(String.format(Locale.ROOT, "%.2f", classesPerMinute));
+  }
+
+  private static double perMinute(int count, long millis) {
+    return millis > 0 ? count * 60000.0 / millis : 0;
+  }
+
+  private static String quote(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * Progress of a single fork, surefire reporting one test class at a time
+   */
+  public static class Fork {
+    private final int  number;
+    private final long started = System.currentTimeMillis();
+    private int        classesStarted;
+    private int        classesCompleted;
+    private int        testsCompleted;
+    private int        testsFailed;
+    private int        testsSkipped;
+    private String     currentClass;
+    private long       currentStarted;
+
+    Fork(int number) {
+      this.number = number;
+    }
+
+    public synchronized void started(String className) {
+      classesStarted++;
+      currentClass = className;
+      currentStarted = System.currentTimeMillis();
+    }
+
+    public synchronized void completed(int tests, int failed, int skipped) {
+      classesCompleted++;
+      testsCompleted += tests;
+      testsFailed += failed;
+      testsSkipped += skipped;
+      currentClass = null;
+    }
+  }
+}
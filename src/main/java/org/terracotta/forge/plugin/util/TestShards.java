@@ -0,0 +1,153 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import javassist.bytecode.ClassFile;
+import org.apache.maven.surefire.api.testset.TestListResolver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits test classes into shards of about the same total duration, using
+ * the longest processing time first heuristic: the longest classes are handed
+ * out first, each to the shard with the least work so far.
+ *
+ * The split only depends on its inputs, so that every CI node computing it
+ * from the same classes and durations gets the same shards.
+ */
+public class TestShards {
+  private final List<List<String>> shards;
+  private final double[]           durations;
+
+  private TestShards(int count) {
+    this.shards = new ArrayList<List<String>>(count);
+    for (int i = 0; i < count; i++) {
+      shards.add(new ArrayList<String>());
+    }
+    this.durations = new double[count];
+  }
+
+  /**
+   * @param classes the test classes to split
+   * @param knownDurations durations in seconds of previous runs, by class
+   *          name. Classes without one are given the median duration
+   */
+  public static TestShards partition(Collection<String> classes, Map<String, Double> knownDurations, int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("shard count must be positive: " + count);
+    }
+    double defaultDuration = median(classes, knownDurations);
+    List<String> sorted = new ArrayList<String>(classes);
+    Collections.sort(sorted, (a, b) -> {
+      int rv = Double.compare(duration(b, knownDurations, defaultDuration),
+          duration(a, knownDurations, defaultDuration));
+      return rv != 0 ? rv : a.compareTo(b);
+    });
+
+    final TestShards rv = new TestShards(count);
+    PriorityQueue<Integer> lightest = new PriorityQueue<Integer>(count, (a, b) -> {
+      int c = Double.compare(rv.durations[a], rv.durations[b]);
+      return c != 0 ? c : Integer.compare(a, b);
+    });
+    for (int i = 0; i < count; i++) {
+      lightest.add(i);
+    }
+    for (String className : sorted) {
+      int shard = lightest.poll();
+      rv.shards.get(shard).add(className);
+      rv.durations[shard] += duration(className, knownDurations, defaultDuration);
+      lightest.add(shard);
+    }
+    for (List<String> shard : rv.shards) {
+      Collections.sort(shard);
+    }
+    return rv;
+  }
+
+  /**
+   * @return the concrete top level classes of the test classes directory
+   *         selected by the given surefire includes and excludes, sorted
+   */
+  public static List<String> findTestClasses(File testClassesDir, List<String> includes, List<String> excludes)
+      throws IOException {
+    List<String> classes = new ArrayList<String>();
+    if (!testClassesDir.isDirectory()) {
+      return classes;
+    }
+    TestListResolver resolver = new TestListResolver(includes, excludes);
+    Path root = testClassesDir.toPath();
+    List<Path> classFiles;
+    try (Stream<Path> walk = Files.walk(root)) {
+      classFiles = walk.filter(path -> path.getFileName().toString().endsWith(".class")).collect(Collectors.toList());
+    }
+    for (Path classFile : classFiles) {
+      String path = root.relativize(classFile).toString().replace(File.separatorChar, '/');
+      if (path.contains("$") || !resolver.shouldRun(path, null) || isAbstract(classFile.toFile())) {
+        continue;
+      }
+      classes.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+    }
+    Collections.sort(classes);
+    return classes;
+  }
+
+  private static boolean isAbstract(File classFile) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)));
+    try {
+      ClassFile cf = new ClassFile(in);
+      return cf.isAbstract() || cf.isInterface();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return the test classes of the given shard, sorted
+   */
+  public List<String> getShard(int index) {
+    return Collections.unmodifiableList(shards.get(index));
+  }
+
+  /**
+   * @return the estimated duration of the given shard, in seconds
+   */
+  public double getDuration(int index) {
+    return durations[index];
+  }
+
+  private static double duration(String className, Map<String, Double> knownDurations, double defaultDuration) {
+    Double duration = knownDurations.get(className);
+    return duration != null ? duration : defaultDuration;
+  }
+
+  private static double median(Collection<String> classes, Map<String, Double> knownDurations) {
+    List<Double> known = new ArrayList<Double>();
+    for (String className : classes) {
+      Double duration = knownDurations.get(className);
+      if (duration != null) {
+        known.add(duration);
+      }
+    }
+    if (known.isEmpty()) {
+      return 1.0;
+    }
+    Collections.sort(known);
+    return known.get(known.size() / 2);
+  }
+}
@@ -3,7 +3,7 @@
  */
 package org.terracotta.forge.plugin.util;
 
-import edu.emory.mathcs.backport.java.util.Collections;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.execution.MavenSession;
@@ -17,17 +17,38 @@ import org.apache.maven.toolchain.java.DefaultJavaToolChain;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -39,6 +60,24 @@ public class Util {
 
   public static final String UNKNOWN = "unknown";
 
+  /**
+   * Time given to a command run by {@link #exec(String, File, Log)}
+   */
+  public static final long EXEC_TIMEOUT_SECONDS = 60;
+
+  /**
+   * How often a command run by exec checks whether it should stop
+   */
+  public static final long EXEC_STOP_CHECK_MILLIS = 500;
+
+  // runs the commands of execAsync and getScmInfoAsync, and drains the output of all commands
+  private static final ExecutorService EXEC_POOL = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("exec-%d").setDaemon(true).build());
+
+  private static final ConcurrentMap<File, CachedScmInfo> SCM_INFO_CACHE = new ConcurrentHashMap<File, CachedScmInfo>();
+  // the build whose SCM info is cached, see scopeScmInfoCache
+  private static WeakReference<Object>                    scmInfoCacheBuild = new WeakReference<Object>(null);
+
   /**
    * When disambiguating GIT branches returned by git rev-parse --contains,
    */
@@ -73,54 +112,302 @@ public class Util {
    * @return lines of stdout as an array or empty list on any failure
    */
   public static List<String> exec(String command, File workdir, Log log) {
-    List<String> output = Collections.emptyList();
-    ProcessBuilder builder = new ProcessBuilder(command.split(" "));
-    builder.directory(workdir);
+    List<String> output = new ArrayList<String>();
+    List<String> errors = new ArrayList<String>();
     try {
-      Process process = builder.start();
-      BufferedReader reader = new BufferedReader(
-              new InputStreamReader(process.getInputStream()));
-
-      output = IOUtils.readLines(process.getInputStream(), StandardCharsets.UTF_8);
-      List<String> errors = IOUtils.readLines(process.getErrorStream(), StandardCharsets.UTF_8);
-
-      process.waitFor(60, TimeUnit.SECONDS);
-      if (process.exitValue() != 0) {
-        log.debug("Exit code " + process.exitValue() + " executing command " + command);
+      int exitCode = exec(Arrays.asList(command.split(" ")), workdir, EXEC_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+          output::add, errors::add);
+      if (exitCode != 0) {
+        log.debug("Exit code " + exitCode + " executing command " + command);
         log.debug("OUTPUT: " + StringUtils.join(output, "\n") + StringUtils.join(errors, "\n"));
         output = Collections.emptyList();
       }
-    } catch (IOException | InterruptedException e) {
+    } catch (IOException | TimeoutException e) {
       log.info("Unable to execute command " + command, e);
+      output = Collections.emptyList();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.info("Interrupted executing command " + command);
+      output = Collections.emptyList();
     }
 
     return output;
   }
 
+  /**
+   * Same as {@link #exec(String, File, Log)}, run on a shared pool so that
+   * several commands can run at the same time
+   */
+  public static CompletableFuture<List<String>> execAsync(String command, File workdir, Log log) {
+    return CompletableFuture.supplyAsync(() -> exec(command, workdir, log), EXEC_POOL);
+  }
+
+  /**
+   * Same as {@link #exec(List, File, long, TimeUnit, Consumer, Consumer)},
+   * run on a shared pool so that several commands can run at the same time.
+   * The command is killed as soon as stop returns true
+   *
+   * @return the exit code of the command
+   */
+  public static CompletableFuture<Integer> execAsync(List<String> command, File workdir, long timeout, TimeUnit unit,
+                                                     Consumer<String> stdout, Consumer<String> stderr,
+                                                     BooleanSupplier stop) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return exec(new ProcessBuilder(command).directory(workdir), StandardCharsets.UTF_8, timeout, unit, stdout,
+            stderr, stop);
+      } catch (IOException | TimeoutException e) {
+        throw new CompletionException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CompletionException(e);
+      }
+    }, EXEC_POOL);
+  }
+
+  /**
+   * Runs a command, handing every line it prints to the given consumers.
+   * Stdout and stderr are drained concurrently by pooled threads, the
+   * consumers are called from those threads. The command and all its
+   * descendants are killed if it isn't done within the timeout.
+   *
+   * @return the exit code of the command
+   * @throws TimeoutException if the command was killed
+   */
+  public static int exec(List<String> command, File workdir, long timeout, TimeUnit unit, Consumer<String> stdout,
+                         Consumer<String> stderr) throws IOException, InterruptedException, TimeoutException {
+    return exec(new ProcessBuilder(command).directory(workdir), StandardCharsets.UTF_8, timeout, unit, stdout, stderr,
+        () -> false);
+  }
+
+  /**
+   * Same as {@link #exec(List, File, long, TimeUnit, Consumer, Consumer)},
+   * for a command set up by the caller, which may also stop it. The command
+   * and all its descendants are killed as soon as stop returns true, which
+   * is checked every {@link #EXEC_STOP_CHECK_MILLIS}. Once the command is
+   * killed, its output is still drained for a moment, so that the consumers
+   * have seen it all when this returns.
+   *
+   * @param timeout no timeout if not positive
+   * @throws TimeoutException if the command was killed after the timeout
+   * @throws CancellationException if the command was killed because of stop
+   */
+  public static int exec(ProcessBuilder builder, Charset charset, long timeout, TimeUnit unit, Consumer<String> stdout,
+                         Consumer<String> stderr, BooleanSupplier stop)
+      throws IOException, InterruptedException, TimeoutException {
+    long start = System.nanoTime();
+    long timeoutNanos = timeout > 0 ? unit.toNanos(timeout) : Long.MAX_VALUE;
+    Process process = builder.start();
+    Future<?> output = null;
+    Future<?> errors = null;
+    boolean done = false;
+    try {
+      process.getOutputStream().close();
+      output = EXEC_POOL.submit(() -> drain(process.getInputStream(), charset, stdout));
+      errors = EXEC_POOL.submit(() -> drain(process.getErrorStream(), charset, stderr));
+      while (!process.waitFor(Math.min(timeoutNanos - (System.nanoTime() - start),
+          TimeUnit.MILLISECONDS.toNanos(EXEC_STOP_CHECK_MILLIS)), TimeUnit.NANOSECONDS)) {
+        if (stop.getAsBoolean()) {
+          throw new CancellationException("Stopped command " + builder.command());
+        }
+        if (System.nanoTime() - start >= timeoutNanos) {
+          throw new TimeoutException("Timed out after " + timeout + " " + unit.name().toLowerCase(Locale.ROOT)
+                                     + " executing command " + builder.command());
+        }
+      }
+      // descendants may keep the streams open after the command exited
+      output.get(Math.max(0, timeoutNanos - (System.nanoTime() - start)), TimeUnit.NANOSECONDS);
+      errors.get(Math.max(0, timeoutNanos - (System.nanoTime() - start)), TimeUnit.NANOSECONDS);
+      done = true;
+      return process.exitValue();
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to read the output of command " + builder.command(), e.getCause());
+    } finally {
+      if (!done) {
+        // closes the streams too, which ends the drains
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+        awaitQuietly(output);
+        awaitQuietly(errors);
+      }
+    }
+  }
+
+  private static void awaitQuietly(Future<?> drain) {
+    if (drain == null) {
+      return;
+    }
+    try {
+      drain.get(EXEC_STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      // the stream was closed under it
+    }
+  }
+
+  private static Void drain(InputStream in, Charset charset, Consumer<String> consumer) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        consumer.accept(line);
+      }
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return null;
+  }
+
+  /**
+   * Same as {@link #getScmInfo(String, Log)}, run on a shared pool so that
+   * several repositories can be read at the same time. Cancelling the future
+   * kills the git commands it runs
+   */
+  public static CompletableFuture<SCMInfo> getScmInfoAsync(String repo, Log log) {
+    CompletableFuture<SCMInfo> future = new CompletableFuture<SCMInfo>();
+    EXEC_POOL.execute(() -> {
+      try {
+        future.complete(getScmInfo(repo, log, future::isCancelled));
+      } catch (IOException | RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Same as {@link #getGitInfo(String, Log)}, cached by git directory for the
+   * build given to {@link #scopeScmInfoCache(MavenSession)}, or for the
+   * lifetime of the plugin class loader without one. An entry is read again
+   * once the files telling the HEAD, its branch or the remotes are written,
+   * or the CI variables naming the branch change.
+   *
+   * @return a copy of the cached info, which callers may modify
+   */
   public static SCMInfo getScmInfo(String repo, Log log) throws IOException {
-    SCMInfo scmInfo = getGitInfo(repo, log);
+    return getScmInfo(repo, log, () -> false);
+  }
+
+  private static SCMInfo getScmInfo(String repo, Log log, BooleanSupplier stop) throws IOException {
+    SCMInfo scmInfo = getCachedGitInfo(repo, log, stop);
     if (scmInfo == null) {
       scmInfo = new SCMInfo(); //not null, for convenince
     }
     return scmInfo;
   }
 
+  /**
+   * Reads the SCM info of a git repository from its git directory, only
+   * forking git to guess the branch of a detached HEAD that isn't the tip of
+   * a remote branch
+   *
+   * @return the info, or null if gitRepo isn't in a git repository with a
+   *         remote
+   */
   public static SCMInfo getGitInfo(String gitRepo, Log log) {
+    GitRepository repository = findGitRepository(gitRepo, log);
+    return repository == null ? null : getGitInfo(repository, gitRepo, log, () -> false);
+  }
+
+  /**
+   * Forgets the SCM info cached by another build than the one of session, so
+   * that a daemon running builds one after the other (mvnd) reads the
+   * repositories again for every build, and doesn't keep them all
+   */
+  public static void scopeScmInfoCache(MavenSession session) {
+    if (session != null) {
+      // the request is shared by the sessions of all the modules of the build
+      scopeScmInfoCache(session.getRequest());
+    }
+  }
+
+  static void scopeScmInfoCache(Object build) {
+    synchronized (SCM_INFO_CACHE) {
+      if (scmInfoCacheBuild.get() != build) {
+        scmInfoCacheBuild = new WeakReference<Object>(build);
+        SCM_INFO_CACHE.clear();
+      }
+    }
+  }
+
+  private static SCMInfo getCachedGitInfo(String gitRepo, Log log, BooleanSupplier stop) {
+    GitRepository repository = findGitRepository(gitRepo, log);
+    if (repository == null) {
+      return null;
+    }
+    File gitDir = repository.getGitDir();
+    String stamp;
+    try {
+      // stamped before reading, so that a change made meanwhile is read next time
+      stamp = repository.getStamp() + BranchInference.getEnvironmentStamp(System.getenv());
+    } catch (IOException e) {
+      log.info("Failed to read git info from " + gitRepo, e);
+      return null;
+    }
+    while (!stop.getAsBoolean()) {
+      // the info is read out of the map, by the thread that put it, while the
+      // others reading the same repository wait for it
+      CachedScmInfo cached = SCM_INFO_CACHE.get(gitDir);
+      boolean owner = false;
+      if (cached != null && cached.stamp.equals(stamp)) {
+        log.debug("Using cached git info of " + gitDir);
+      } else {
+        CachedScmInfo read = new CachedScmInfo(stamp, () -> getGitInfo(repository, gitRepo, log, stop), stop);
+        if (cached == null ? SCM_INFO_CACHE.putIfAbsent(gitDir, read) != null
+            : !SCM_INFO_CACHE.replace(gitDir, cached, read)) {
+          continue;
+        }
+        read.info.run();
+        if (read.stopped) {
+          // the branch may be missing
+          SCM_INFO_CACHE.remove(gitDir, read);
+        }
+        cached = read;
+        owner = true;
+      }
+      try {
+        SCMInfo info = cached.info.get();
+        if (cached.stopped && !owner) {
+          // the thread reading it gave up, read it again
+          continue;
+        }
+        return info == null ? null : new SCMInfo(info);
+      } catch (CancellationException e) {
+        SCM_INFO_CACHE.remove(gitDir, cached);
+      } catch (ExecutionException e) {
+        SCM_INFO_CACHE.remove(gitDir, cached);
+        log.info("Failed to read git info from " + gitRepo, e.getCause());
+        return null;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.info("Interrupted reading git info from " + gitRepo);
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private static GitRepository findGitRepository(String gitRepo, Log log) {
+    try {
+      GitRepository repository = GitRepository.find(new File(gitRepo));
+      if (repository == null) {
+        log.debug("No git repository found at " + gitRepo);
+      }
+      return repository;
+    } catch (IOException e) {
+      log.info("Failed to read git info from " + gitRepo, e);
+      return null;
+    }
+  }
+
+  private static SCMInfo getGitInfo(GitRepository repository, String gitRepo, Log log, BooleanSupplier stop) {
     SCMInfo result = new SCMInfo();
-    File gitDir = new File(gitRepo);
 
     try {
       //find remote url
-      List<String> exec = Util.exec("git remote -v", gitDir, log);
-      Map<String, String> remoteMap = exec
-          .stream()
-          .map(elem -> elem.split("[ \t]"))
-          .filter(e -> e.length > 1)
-          .collect(Collectors.toMap(e -> e[0], e -> e[1], (match1, match2) -> match1));
-
-      String remoteName = remoteMap.keySet().stream().filter(name ->
-              Stream.of("upstream", "origin").anyMatch(it -> it.equals(name))
-      ).findFirst().orElse(null);
+      Map<String, String> remoteMap = repository.getRemoteUrls();
+      String remoteName = Stream.of("upstream", "origin").filter(remoteMap::containsKey).findFirst().orElse(null);
       if (remoteName != null) {
         result.url = remoteMap.get(remoteName);
       } else {
@@ -131,27 +418,19 @@ public class Util {
         return null;
       }
 
-      result.revision = Util.exec("git rev-parse HEAD", gitDir, log).stream().findFirst().orElse(null);
+      result.revision = repository.getRevision();
 
       // find branch
-      result.branch = Util.exec("git rev-parse --abbrev-ref HEAD", gitDir, log).stream().findFirst().orElse(null);
-      if ("HEAD".equals(result.branch)) {
-        log.debug("Determining branch from git branch --contains");
-        // this is a detached head situation.  Let's try to guess the branch from "--contains"
-        result.branch = Util.exec("git branch --remote --contains", gitDir, log).stream()
-                .filter(Objects::nonNull)
-                .map(branch -> branch.substring(branch.indexOf('/') + 1)) //strip remote name
-                .filter(branch -> branch.matches(GIT_BRANCH_MATCH_REGEX))
-                .sorted(GIT_BRANCH_NAME_COMPARATOR)
-                .findFirst().orElse(null);
+      result.branch = repository.getBranch();
+      if (result.branch == null && result.revision != null) {
+        // this is a detached head situation.  Let's try to guess the branch
+        result.branch = BranchInference.inferBranch(repository, result.revision, new File(gitRepo), System.getenv(),
+            log, stop);
       }
       if (result.branch == null) {
         result.branch = System.getenv("GIT_BRANCH");
       }
 
-    } catch (IllegalArgumentException ix) {
-      // means there is no git repo
-      return null;
     } catch (Exception e) {
       log.info("Failed to read git info from " + gitRepo, e);
       // partial read?  Let's not return partial data
@@ -161,6 +440,36 @@ public class Util {
     return result;
   }
 
+  private static class CachedScmInfo {
+    final String              stamp;
+    final FutureTask<SCMInfo> info;
+    // set before info completes, so that the threads waiting for it see it
+    volatile boolean          stopped;
+
+    CachedScmInfo(String stamp, Callable<SCMInfo> reader, BooleanSupplier stop) {
+      this.stamp = stamp;
+      this.info = new FutureTask<SCMInfo>(() -> {
+        try {
+          return reader.call();
+        } finally {
+          stopped = stop.getAsBoolean();
+        }
+      });
+    }
+  }
+
+  /**
+   * Moves source over target, atomically when the file system supports it
+   */
+  public static void moveAtomically(File source, File target) throws IOException {
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
   public static String getZipEntries(File file) throws IOException {
     StringBuilder buff = new StringBuilder();
     ZipFile zipFile = new ZipFile(file);
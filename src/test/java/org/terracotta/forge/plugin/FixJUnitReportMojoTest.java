@@ -0,0 +1,206 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.project.MavenProject;
+import org.dom4j.DocumentHelper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.forge.plugin.util.CleanedReportIndex;
+import org.terracotta.forge.plugin.util.ReportSummary;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FixJUnitReportMojoTest {
+
+  private static final String REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                                       + "<testsuite name=\"CLASSNAME\" tests=\"1\" errors=\"0\" failures=\"0\" skipped=\"0\" time=\"0.25\">\n"
+                                       + "  <properties><property name=\"a\" value=\"b\"/></properties>\n"
+                                       + "  <testcase name=\"test\" classname=\"CLASSNAME\" time=\"0.25\"/>\n"
+                                       + "  <system-out>output</system-out>\n"
+                                       + "</testsuite>\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File reportsDir;
+
+  @Before
+  public void setUp() throws Exception {
+    reportsDir = folder.newFolder("surefire-reports");
+  }
+
+  private FixJUnitReportMojo fakeMojo(int threads) {
+    MavenProject project = new MavenProject();
+    project.getBuild().setDirectory(folder.getRoot().getAbsolutePath());
+    FixJUnitReportMojo mojo = new FixJUnitReportMojo();
+    mojo.setProject(project);
+    mojo.setThreads(threads);
+    return mojo;
+  }
+
+  private File writeReport(String className, String content) throws Exception {
+    File report = new File(reportsDir, "TEST-" + className + ".xml");
+    FileUtils.write(report, content.replace("CLASSNAME", className), StandardCharsets.UTF_8);
+    FileUtils.write(new File(reportsDir, className + ".txt"), "summary", StandardCharsets.UTF_8);
+    return report;
+  }
+
+  private static String read(File file) throws Exception {
+    return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void cleansReportsConcurrently() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      writeReport("com.acme.Test" + i, REPORT);
+    }
+    File empty = writeReport("com.acme.EmptyTest", "");
+
+    fakeMojo(4).execute();
+
+    for (int i = 0; i < 50; i++) {
+      String cleaned = read(new File(reportsDir, "TEST-com.acme.Test" + i + ".xml"));
+      assertFalse(cleaned.contains("<properties"));
+      assertFalse(cleaned.contains("<system-out"));
+      assertTrue(cleaned.contains("classname=\"com.acme.Test" + i + "\""));
+    }
+    assertTrue(read(empty).contains("Test has timeout or crashed"));
+    // 51 xml + 51 txt + index + summary, no temp file left behind
+    assertEquals(104, reportsDir.listFiles().length);
+  }
+
+  @Test
+  public void createsMissingReports() throws Exception {
+    FileUtils.write(new File(reportsDir, "com.acme.CrashedTest.txt"), "summary", StandardCharsets.UTF_8);
+
+    fakeMojo(0).execute();
+
+    assertTrue(read(new File(reportsDir, "TEST-com.acme.CrashedTest.xml")).contains("Test has timeout or crashed"));
+  }
+
+  @Test
+  public void attachesTimeoutDumps() throws Exception {
+    FileUtils.write(new File(reportsDir, "com.acme.HangingTest.txt"), "summary", StandardCharsets.UTF_8);
+    FileUtils.write(new File(reportsDir, "timeout-pid12.dump"), "=== Thread dump 1 of 1\n\"main\" <waiting>\n"
+                                                                + "\tat com.acme.HangingTest.hangs(HangingTest.java:7)\n",
+        Charset.defaultCharset());
+    FileUtils.write(new File(reportsDir, "timeout-pid34.dump"), "\tat com.acme.OtherTest.run(OtherTest.java:9)\n",
+        Charset.defaultCharset());
+
+    fakeMojo(0).execute();
+
+    String report = read(new File(reportsDir, "TEST-com.acme.HangingTest.xml"));
+    assertTrue(report.contains("timeout-pid12.dump:\n=== Thread dump 1 of 1\n\"main\" &lt;waiting&gt;\n"));
+    assertFalse(report.contains("OtherTest"));
+    // still well formed
+    DocumentHelper.parseText(report);
+  }
+
+  @Test
+  public void skipsReportsCleanedBefore() throws Exception {
+    File unchanged = writeReport("com.acme.UnchangedTest", REPORT);
+    File changed = writeReport("com.acme.ChangedTest", REPORT);
+    fakeMojo(1).execute();
+    assertTrue(new File(reportsDir, CleanedReportIndex.FILENAME).isFile());
+
+    // same size and timestamp as the cleaned report, the index can't tell the difference
+    long lastModified = unchanged.lastModified();
+    String sameSize = "<!--" + StringUtils.repeat('x', (int) unchanged.length() - 7) + "-->";
+    FileUtils.write(unchanged, sameSize, StandardCharsets.UTF_8);
+    assertTrue(unchanged.setLastModified(lastModified));
+    writeReport("com.acme.ChangedTest", REPORT);
+
+    fakeMojo(1).execute();
+
+    assertEquals(sameSize, read(unchanged));
+    assertFalse(read(changed).contains("<system-out"));
+    // the skipped report is still summarized, from the index
+    List<ReportSummary> summaries = ReportSummary.read(new File(reportsDir, ReportSummary.FILENAME));
+    assertEquals(2, summaries.size());
+    assertEquals("com.acme.UnchangedTest,1,0,0,0,0.250,false", summaries.get(1).toCsv());
+  }
+
+  @Test
+  public void archivesReports() throws Exception {
+    File report = writeReport("com.acme.FooTest", REPORT);
+    File output = new File(reportsDir, "com.acme.FooTest-output.txt");
+    FileUtils.write(output, "output", StandardCharsets.UTF_8);
+
+    FixJUnitReportMojo mojo = fakeMojo(1);
+    mojo.setArchiveReports(true);
+    mojo.execute();
+
+    Map<String, ZipEntry> entries = new TreeMap<String, ZipEntry>();
+    try (ZipFile zip = new ZipFile(new File(folder.getRoot(), "surefire-reports.zip"))) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        entries.put(entry.getName(), entry);
+      }
+      assertEquals(read(report), IOUtils.toString(zip.getInputStream(entries.get("surefire-reports/TEST-com.acme.FooTest.xml")),
+          StandardCharsets.UTF_8));
+    }
+    assertEquals("[surefire-reports/TEST-com.acme.FooTest.xml, surefire-reports/com.acme.FooTest.txt, "
+                 + "surefire-reports/test-summary.csv]", entries.keySet().toString());
+    // zip timestamps are stored with a one second precision
+    assertEquals(report.lastModified() / 1000,
+        entries.get("surefire-reports/TEST-com.acme.FooTest.xml").getLastModifiedTime().toMillis() / 1000);
+
+    mojo.setArchiveReportOutputs(true);
+    mojo.execute();
+    try (ZipFile zip = new ZipFile(new File(folder.getRoot(), "surefire-reports.zip"))) {
+      assertTrue(zip.getEntry("surefire-reports/com.acme.FooTest-output.txt") != null);
+    }
+  }
+
+  @Test
+  public void writesSummary() throws Exception {
+    writeReport("com.acme.PassingTest", REPORT);
+    writeReport("com.acme.FailingTest", REPORT.replace("failures=\"0\"", "failures=\"2\"")
+        .replace("tests=\"1\"", "tests=\"3\""));
+    writeReport("com.acme.EmptyTest", "");
+    FileUtils.write(new File(reportsDir, "com.acme.CrashedTest.txt"), "summary", StandardCharsets.UTF_8);
+
+    fakeMojo(2).execute();
+
+    assertEquals("class,tests,failures,errors,skipped,time,synthesized\n"
+                 + "com.acme.CrashedTest,1,1,0,0,0.000,true\n"
+                 + "com.acme.EmptyTest,1,1,0,0,0.000,true\n"
+                 + "com.acme.FailingTest,3,2,0,0,0.250,false\n"
+                 + "com.acme.PassingTest,1,0,0,0,0.250,false\n",
+        read(new File(reportsDir, ReportSummary.FILENAME)));
+  }
+
+  @Test
+  public void nonIncrementalCleansEverything() throws Exception {
+    File report = writeReport("com.acme.FooTest", REPORT);
+    fakeMojo(1).execute();
+    long lastModified = report.lastModified();
+    FileUtils.write(report, "", StandardCharsets.UTF_8);
+    assertTrue(report.setLastModified(lastModified));
+
+    FixJUnitReportMojo mojo = fakeMojo(1);
+    mojo.setIncremental(false);
+    mojo.execute();
+
+    assertTrue(read(report).contains("Test has timeout or crashed"));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AffectedTestsTest {
+
+  public static class Deep {
+  }
+
+  public static class Helper {
+    Deep deep;
+  }
+
+  public static class Unrelated {
+    String name;
+  }
+
+  public static class HelperTest {
+    Helper helper;
+  }
+
+  public static class PlainTest {
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File classes;
+  private File testClasses;
+  private File cache;
+  private List<String> tests = Arrays.asList(HelperTest.class.getName(), PlainTest.class.getName());
+
+  @Before
+  public void setUp() throws Exception {
+    classes = folder.newFolder("classes");
+    testClasses = folder.newFolder("test-classes");
+    cache = new File(folder.getRoot(), AffectedTests.FILENAME);
+    copyClass(Deep.class, classes);
+    copyClass(Helper.class, classes);
+    copyClass(HelperTest.class, testClasses);
+    copyClass(PlainTest.class, testClasses);
+    FileUtils.write(new File(classes, "app.properties"), "a=b", StandardCharsets.UTF_8);
+  }
+
+  private File copyClass(Class<?> c, File dir) throws Exception {
+    String path = c.getName().replace('.', '/') + ".class";
+    File file = new File(dir, path);
+    FileUtils.copyURLToFile(c.getClassLoader().getResource(path), file);
+    return file;
+  }
+
+  private AffectedTests update() throws Exception {
+    return AffectedTests.update(cache, Arrays.asList(classes, testClasses), Collections.<File> emptyList(),
+        new SystemStreamLog());
+  }
+
+  private void passAll() throws Exception {
+    AffectedTests index = update();
+    for (String test : tests) {
+      index.markPassed(test);
+    }
+    index.save(cache);
+  }
+
+  @Test
+  public void testsAreAffectedUntilTheyPass() throws Exception {
+    assertEquals(tests, update().getAffected(tests));
+    passAll();
+
+    AffectedTests index = update();
+
+    assertEquals(0, index.getScanned());
+    assertEquals(Collections.emptyList(), index.getAffected(tests));
+  }
+
+  @Test
+  public void transitiveChangesAffectTests() throws Exception {
+    passAll();
+
+    // Deep changes, as far as its class file is concerned
+    File deep = new File(classes, Deep.class.getName().replace('.', '/') + ".class");
+    FileUtils.copyFile(copyClass(Unrelated.class, folder.newFolder()), deep, false);
+    assertTrue(deep.setLastModified(deep.lastModified() + 2000));
+
+    AffectedTests index = update();
+
+    assertEquals(1, index.getScanned());
+    assertEquals(Arrays.asList(HelperTest.class.getName()), index.getAffected(tests));
+  }
+
+  @Test
+  public void resourceChangesAffectAllTests() throws Exception {
+    passAll();
+
+    File resource = new File(classes, "app.properties");
+    FileUtils.write(resource, "a=c", StandardCharsets.UTF_8);
+    assertTrue(resource.setLastModified(resource.lastModified() + 2000));
+
+    assertEquals(tests, update().getAffected(tests));
+  }
+}
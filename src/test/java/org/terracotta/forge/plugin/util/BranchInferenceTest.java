@@ -0,0 +1,112 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeFalse;
+
+public class BranchInferenceTest {
+  private static final String HEAD  = "1111111111111111111111111111111111111111";
+  private static final String OTHER = "2222222222222222222222222222222222222222";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private GitRepository repository;
+
+  @Before
+  public void setUp() throws Exception {
+    File gitDir = folder.newFolder(".git");
+    FileUtils.write(new File(gitDir, "HEAD"), HEAD + "\n", StandardCharsets.UTF_8);
+    FileUtils.write(new File(gitDir, "config"), "[remote \"origin\"]\n\turl = https://an.example/repo.git\n",
+        StandardCharsets.UTF_8);
+    FileUtils.write(new File(gitDir, "packed-refs"), HEAD + " refs/remotes/origin/main\n"
+                                                     + HEAD + " refs/remotes/origin/release/4.3\n"
+                                                     + HEAD + " refs/remotes/origin/feature\n"
+                                                     + OTHER + " refs/remotes/origin/release/4.1\n",
+        StandardCharsets.UTF_8);
+    repository = GitRepository.find(folder.getRoot());
+  }
+
+  private String infer(Map<String, String> env) throws Exception {
+    return BranchInference.inferBranch(repository, HEAD, folder.getRoot(), env, new SystemStreamLog(), () -> false);
+  }
+
+  @Test
+  public void prefersTheCiBranchWhenItIsTheHead() throws Exception {
+    Map<String, String> env = new HashMap<String, String>();
+    env.put("GIT_BRANCH", "origin/feature");
+    assertEquals("feature", infer(env));
+
+    // the main checkout may be on another branch than a submodule
+    env.put("GIT_BRANCH", "origin/release/4.1");
+    assertEquals("release/4.3", infer(env));
+  }
+
+  @Test
+  public void picksTheFirstMatchingBranchAtTheHead() throws Exception {
+    assertEquals("release/4.3", infer(Collections.<String, String> emptyMap()));
+  }
+
+  @Test
+  public void alwaysLooksForTheHeadInMain() throws Exception {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    File work = folder.newFolder("work");
+    git(work, "init", "-q");
+    git(work, "remote", "add", "origin", "https://an.example/repo.git");
+    git(work, "-c", "user.name=test", "-c", "user.email=test@an.example", "commit", "-q", "--allow-empty", "-m",
+        "head");
+    git(work, "-c", "user.name=test", "-c", "user.email=test@an.example", "commit", "-q", "--allow-empty", "-m",
+        "main");
+    git(work, "update-ref", "refs/remotes/origin/main", "HEAD");
+    // more release branches than are checked, none of them containing the head
+    git(work, "checkout", "-q", "--orphan", "release");
+    git(work, "-c", "user.name=test", "-c", "user.email=test@an.example", "commit", "-q", "--allow-empty", "-m",
+        "release");
+    for (int i = 0; i <= BranchInference.MAX_ANCESTRY_CANDIDATES; i++) {
+      git(work, "update-ref", "refs/remotes/origin/release/" + i, "HEAD");
+    }
+    git(work, "checkout", "-q", "--detach", "refs/remotes/origin/main~1");
+
+    GitRepository repository = GitRepository.find(work);
+    assertEquals("main", BranchInference.inferBranch(repository, repository.getRevision(), work,
+        Collections.<String, String> emptyMap(), new SystemStreamLog(), () -> false));
+  }
+
+  private static void git(File workdir, String... args) throws Exception {
+    List<String> command = new ArrayList<String>();
+    command.add("git");
+    command.addAll(Arrays.asList(args));
+    assertEquals(0, Util.exec(command, workdir, 30, TimeUnit.SECONDS, line -> { }, line -> { }));
+  }
+
+  @Test
+  public void stripsRefPrefixes() {
+    assertEquals("release/4.1", BranchInference.stripRef("refs/remotes/origin/release/4.1",
+        Arrays.asList("upstream", "origin")));
+    assertEquals("main", BranchInference.stripRef("refs/heads/main", Arrays.asList("origin")));
+    assertEquals("main", BranchInference.stripRef("main", Arrays.asList("origin")));
+    assertNull(BranchInference.stripRef("refs/remotes/gone/main", Arrays.asList("origin")));
+  }
+}
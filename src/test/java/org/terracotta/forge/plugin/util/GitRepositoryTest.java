@@ -0,0 +1,155 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+public class GitRepositoryTest {
+  private static final String FIRST  = "1111111111111111111111111111111111111111";
+  private static final String SECOND = "2222222222222222222222222222222222222222";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File work;
+  private File gitDir;
+
+  @Before
+  public void setUp() throws Exception {
+    work = folder.newFolder("work");
+    gitDir = new File(work, ".git");
+    write("HEAD", "ref: refs/heads/main\n");
+    write("config", "[core]\n\tbare = false\n[remote \"another\"]\n\turl = https://wrong.example/repo.git\n"
+                    + "[Remote \"origin\"]\n\tfetch = +refs/heads/*:refs/remotes/origin/*\n"
+                    + "\tURL = \"https://an.example/repo.git\" ; the upstream\n");
+    write("packed-refs", "# pack-refs with: peeled fully-peeled sorted\n" + FIRST + " refs/heads/main\n"
+                         + FIRST + " refs/remotes/origin/main\n" + FIRST + " refs/remotes/origin/release/4.1\n"
+                         + FIRST + " refs/tags/v1\n^" + SECOND + "\n");
+    write("refs/remotes/origin/HEAD", "ref: refs/remotes/origin/main\n");
+  }
+
+  private void write(String path, String content) throws Exception {
+    FileUtils.write(new File(gitDir, path), content, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void readsPackedAndLooseRefs() throws Exception {
+    File subdir = new File(work, "sub/module");
+    subdir.mkdirs();
+    GitRepository repository = GitRepository.find(subdir);
+
+    assertEquals("main", repository.getBranch());
+    assertEquals(FIRST, repository.getRevision());
+    assertEquals(FIRST, repository.resolve("refs/remotes/origin/HEAD"));
+    assertEquals(Arrays.asList("refs/remotes/origin/main", "refs/remotes/origin/release/4.1"),
+        new ArrayList<String>(repository.getRefs("refs/remotes/").keySet()));
+
+    write("refs/heads/main", SECOND + "\n");
+
+    assertEquals(SECOND, repository.getRevision());
+    assertEquals("https://an.example/repo.git", repository.getRemoteUrls().get("origin"));
+    assertEquals("https://wrong.example/repo.git", repository.getRemoteUrls().get("another"));
+  }
+
+  @Test
+  public void asksGitForRewrittenUrls() throws Exception {
+    assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+    new File(gitDir, "objects").mkdirs();
+    write("config", "[core]\n\tbare = false\n[url \"https://an.example/\"]\n\tinsteadOf = acme:\n"
+                    + "[remote \"origin\"]\n\turl = acme:repo.git\n");
+
+    assertEquals("https://an.example/repo.git", GitRepository.find(work).getRemoteUrls().get("origin"));
+  }
+
+  @Test
+  public void readsDetachedWorktree() throws Exception {
+    write("worktrees/wt/HEAD", SECOND + "\n");
+    write("worktrees/wt/commondir", "../..\n");
+    File worktree = folder.newFolder("wt");
+    FileUtils.write(new File(worktree, ".git"), "gitdir: " + new File(gitDir, "worktrees/wt") + "\n",
+        StandardCharsets.UTF_8);
+
+    GitRepository repository = GitRepository.find(worktree);
+
+    assertNull(repository.getBranch());
+    assertEquals(SECOND, repository.getRevision());
+    assertEquals(FIRST, repository.resolve("refs/heads/main"));
+    assertEquals("https://an.example/repo.git", repository.getRemoteUrls().get("origin"));
+  }
+
+  @Test
+  public void scmInfoIsCachedUntilTheHeadBranchChanges() throws Exception {
+    SCMInfo info = Util.getScmInfo(work.getPath(), new SystemStreamLog());
+    assertEquals(FIRST, info.revision);
+    info.revision = "modified";
+
+    assertEquals(FIRST, Util.getScmInfo(work.getPath(), new SystemStreamLog()).revision);
+
+    write("refs/heads/main", SECOND + "\n");
+    File ref = new File(gitDir, "refs/heads/main");
+    assertTrue(ref.setLastModified(ref.lastModified() + 2000));
+
+    info = Util.getScmInfo(work.getPath(), new SystemStreamLog());
+    assertEquals(SECOND, info.revision);
+    assertEquals("main", info.branch);
+    assertEquals("https://an.example/repo.git", info.url);
+  }
+
+  @Test
+  public void scmInfoCacheIsScopedToTheBuild() throws Exception {
+    write("refs/heads/main", FIRST + "\n");
+    Util.scopeScmInfoCache(new Object());
+    assertEquals(FIRST, Util.getScmInfo(work.getPath(), new SystemStreamLog()).revision);
+
+    // same length, same time: only another build sees it
+    File ref = new File(gitDir, "refs/heads/main");
+    long lastModified = ref.lastModified();
+    write("refs/heads/main", SECOND + "\n");
+    assertTrue(ref.setLastModified(lastModified));
+    assertEquals(FIRST, Util.getScmInfo(work.getPath(), new SystemStreamLog()).revision);
+
+    Util.scopeScmInfoCache(new Object());
+    assertEquals(SECOND, Util.getScmInfo(work.getPath(), new SystemStreamLog()).revision);
+  }
+
+  @Test
+  public void stampChangesWithNestedRemoteRefs() throws Exception {
+    write("refs/remotes/origin/release/4.1", FIRST + "\n");
+    GitRepository repository = GitRepository.find(work);
+    String stamp = repository.getStamp();
+
+    // updating a nested ref doesn't touch the refs/remotes/origin directory
+    write("refs/remotes/origin/release/4.1", SECOND + "\n");
+    File ref = new File(gitDir, "refs/remotes/origin/release/4.1");
+    assertTrue(ref.setLastModified(ref.lastModified() + 2000));
+    assertNotEquals(stamp, repository.getStamp());
+    stamp = repository.getStamp();
+
+    write("refs/remotes/origin/release/4.2", FIRST + "\n");
+    assertNotEquals(stamp, repository.getStamp());
+  }
+
+  @Test
+  public void findsNothingOutsideRepositories() throws Exception {
+    assertNull(GitRepository.find(folder.newFolder("elsewhere")));
+    assertNull(GitRepository.find(new File(work, "missing")));
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JUnitReportCleanerTest {
+
+  private static final String REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                                       + "<testsuite name=\"com.acme.FooTest\" tests=\"2\" errors=\"0\" failures=\"1\" skipped=\"0\" time=\"1.5\">\n"
+                                       + "  <properties>\n"
+                                       + "    <property name=\"java.version\" value=\"11\"/>\n"
+                                       + "  </properties>\n"
+                                       + "  <testcase name=\"passes\" classname=\"com.acme.FooTest\" time=\"0.5\"/>\n"
+                                       + "  <testcase name=\"fails\" classname=\"com.acme.FooTest\" time=\"1.0\">\n"
+                                       + "    <failure message=\"a &lt; b\" type=\"java.lang.AssertionError\">expected:&lt;1&gt;but:&amp;2</failure>\n"
+                                       + "  </testcase>\n"
+                                       + "  <system-out>lots of output</system-out>\n"
+                                       + "  <system-err>lots of errors</system-err>\n"
+                                       + "</testsuite>\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final JUnitReportCleaner cleaner = new JUnitReportCleaner(new SystemStreamLog());
+
+  @Test
+  public void removesUnwantedElements() throws Exception {
+    File report = writeReport("TEST-com.acme.FooTest.xml", REPORT);
+
+    cleaner.cleanReport(report);
+
+    String cleaned = read(report);
+    assertFalse(cleaned.contains("<properties"));
+    assertFalse(cleaned.contains("lots of output"));
+    assertFalse(cleaned.contains("lots of errors"));
+    assertTrue(cleaned.contains("<testcase name=\"passes\" classname=\"com.acme.FooTest\" time=\"0.5\" >"));
+    assertTrue(cleaned.contains("message=\"a &lt; b\""));
+    assertTrue(cleaned.contains("expected:&lt;1&gt;but:&amp;2"));
+    assertEquals(1, folder.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void replacesEmptyReport() throws Exception {
+    File report = writeReport("TEST-com.acme.FooTest.xml", "");
+
+    cleaner.cleanReport(report);
+
+    assertTrue(read(report).contains("Test has timeout or crashed"));
+    assertTrue(read(report).contains("classname='com.acme.FooTest'"));
+  }
+
+  @Test
+  public void replacesTruncatedReport() throws Exception {
+    File report = writeReport("TEST-com.acme.FooTest.xml", REPORT.substring(0, REPORT.length() / 2));
+
+    cleaner.cleanReport(report);
+
+    assertTrue(read(report).contains("Test has timeout or crashed"));
+    assertEquals(1, folder.getRoot().listFiles().length);
+  }
+
+  private File writeReport(String name, String content) throws Exception {
+    File report = new File(folder.getRoot(), name);
+    FileUtils.write(report, content, StandardCharsets.UTF_8);
+    return report;
+  }
+
+  private static String read(File report) throws Exception {
+    return FileUtils.readFileToString(report, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void truncatesElementsToTheirTail() throws Exception {
+    String output = StringUtils.repeat("line &lt;", 20) + "last words";
+    File report = writeReport("TEST-com.acme.FooTest.xml", REPORT.replace("lots of output", output));
+    cleaner.setTruncatedElements(Arrays.asList("system-out"), 20);
+
+    cleaner.cleanReport(report);
+
+    String cleaned = read(report);
+    assertTrue(cleaned, cleaned.contains("<system-out truncated=\"110\" >ne &lt;line &lt;last words</system-out>"));
+    assertFalse(cleaned.contains("lots of errors"));
+
+    // the tail is kept as is, and the report isn't rewritten, when cleaned again
+    assertFalse(cleaner.needsCleaning(report));
+    cleaner.cleanReport(report);
+    assertTrue(read(report).contains("<system-out truncated=\"110\" >ne &lt;line &lt;last words</system-out>"));
+  }
+
+  @Test
+  public void leavesElementsShorterThanTheTail() throws Exception {
+    File report = writeReport("TEST-com.acme.FooTest.xml", REPORT);
+    cleaner.setUnwantedElements(Arrays.<String> asList());
+    cleaner.setTruncatedElements(Arrays.asList("system-out", "system-err"), 14);
+
+    assertFalse(cleaner.needsCleaning(report));
+
+    cleaner.setTruncatedElements(Arrays.asList("system-out", "system-err"), 13);
+
+    assertTrue(cleaner.needsCleaning(report));
+  }
+
+  @Test
+  public void dropsConfiguredElements() throws Exception {
+    File report = writeReport("TEST-com.acme.FooTest.xml", REPORT);
+    cleaner.setUnwantedElements(Arrays.asList("system-err"));
+
+    cleaner.cleanReport(report);
+
+    String cleaned = read(report);
+    assertTrue(cleaned.contains("<properties"));
+    assertTrue(cleaned.contains("lots of output"));
+    assertFalse(cleaned.contains("lots of errors"));
+  }
+
+  @Test
+  public void leavesReportsWithNothingToCleanUntouched() throws Exception {
+    String clean = REPORT.replaceAll("(?s)  <properties>.*</properties>\n", "").replaceAll("  <system-.*\n", "");
+    File report = writeReport("TEST-com.acme.FooTest.xml", clean);
+
+    assertFalse(cleaner.needsCleaning(report));
+    cleaner.cleanReport(report);
+
+    assertEquals(clean, read(report));
+  }
+
+  @Test
+  public void findsElementsAcrossReadBoundaries() throws Exception {
+    String head = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"com.acme.FooTest\" tests=\"0\">\n";
+    // the tag starts a few bytes before the end of the first 64KB read
+    String padded = head + StringUtils.repeat(' ', 64 * 1024 - 5 - head.length());
+    File report = writeReport("TEST-com.acme.FooTest.xml", padded + "<system-err>boom</system-err>\n</testsuite>\n");
+
+    assertTrue(cleaner.needsCleaning(report));
+    cleaner.cleanReport(report);
+
+    assertFalse(read(report).contains("boom"));
+  }
+
+  @Test
+  public void incompleteReportsNeedCleaning() throws Exception {
+    String clean = REPORT.replaceAll("(?s)  <properties>.*</properties>\n", "").replaceAll("  <system-.*\n", "");
+    File report = writeReport("TEST-com.acme.FooTest.xml", clean.substring(0, clean.lastIndexOf("</testsuite>")));
+
+    assertTrue(cleaner.needsCleaning(report));
+    cleaner.cleanReport(report);
+
+    assertTrue(read(report).contains("Test has timeout or crashed"));
+  }
+
+  @Test
+  public void scansQuotedAttributeValues() throws Exception {
+    String clean = REPORT.replaceAll("(?s)  <properties>.*</properties>\n", "").replaceAll("  <system-err.*\n", "");
+    File report = writeReport("TEST-com.acme.FooTest.xml",
+        clean.replace("<system-out>lots of output", "<system-out note=\"a > b\">" + StringUtils.repeat('x', 30)));
+
+    // the text of system-out starts after the quoted '>'
+    cleaner.setTruncatedElements(Arrays.asList("system-out"), 30);
+    assertFalse(cleaner.needsCleaning(report));
+
+    cleaner.setTruncatedElements(Arrays.asList("system-out"), 29);
+    assertTrue(cleaner.needsCleaning(report));
+  }
+
+  @Test
+  public void replacesReportsBrokenInTheMiddle() throws Exception {
+    String clean = REPORT.replaceAll("(?s)  <properties>.*</properties>\n", "").replaceAll("  <system-.*\n", "");
+    String[] brokenReports = {
+        clean.replace("</failure>", ""),
+        clean.replace("  <testcase name=\"passes\"", "  <testcase name=\"passes"),
+        clean.replace("expected:", "expected\u0000:"),
+        clean.replace("&amp;", "&"),
+        clean + "<testsuite>\n</testsuite>\n" };
+    for (String broken : brokenReports) {
+      File report = writeReport("TEST-com.acme.FooTest.xml", broken);
+
+      assertTrue(broken, cleaner.needsCleaning(report));
+      ReportSummary summary = cleaner.cleanReport(report);
+
+      assertTrue(broken, read(report).contains("Test has timeout or crashed"));
+      assertTrue(summary.isSynthesized());
+    }
+  }
+}
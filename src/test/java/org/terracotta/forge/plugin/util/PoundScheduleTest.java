@@ -0,0 +1,81 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PoundScheduleTest {
+
+  @Test
+  public void splitsCountedIterationsBetweenThreads() {
+    PoundSchedule schedule = new PoundSchedule(10, 3, 0);
+    assertEquals(1, schedule.nextBatch());
+    assertEquals(4, schedule.batchSize(1));
+    assertEquals(5, schedule.nextBatch());
+    assertEquals(9, schedule.nextBatch());
+    assertEquals(2, schedule.batchSize(9));
+    assertEquals(0, schedule.nextBatch());
+  }
+
+  @Test
+  public void sharesTimedPoundingBetweenReusedForks() throws Exception {
+    // poundReuseForks with poundMinutes: no iteration count, no iterations per fork
+    final PoundSchedule schedule = new PoundSchedule(Integer.MAX_VALUE, 2, 0);
+    final long deadline = System.currentTimeMillis() + 300;
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<List<Integer>>> workers = new ArrayList<Future<List<Integer>>>();
+      for (int t = 0; t < 2; t++) {
+        workers.add(executor.submit(new Callable<List<Integer>>() {
+          @Override
+          public List<Integer> call() throws Exception {
+            List<Integer> batches = new ArrayList<Integer>();
+            int first;
+            while (System.currentTimeMillis() < deadline && (first = schedule.nextBatch()) > 0) {
+              assertEquals(PoundSchedule.UNBOUNDED_BATCH, schedule.batchSize(first));
+              batches.add(first);
+              // the fork runs until the deadline or the end of its batch
+              Thread.sleep(50);
+            }
+            return batches;
+          }
+        }));
+      }
+      List<Integer> all = new ArrayList<Integer>();
+      for (Future<List<Integer>> worker : workers) {
+        List<Integer> batches = worker.get(10, TimeUnit.SECONDS);
+        assertTrue("every thread pounds", batches.size() > 1);
+        all.addAll(batches);
+      }
+      Collections.sort(all);
+      for (int i = 0; i < all.size(); i++) {
+        assertEquals(1 + i * PoundSchedule.UNBOUNDED_BATCH, (int) all.get(i));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void neverOverflowsPastTheLastIteration() {
+    PoundSchedule schedule = new PoundSchedule(Integer.MAX_VALUE, 2, Integer.MAX_VALUE - 1);
+    assertEquals(1, schedule.nextBatch());
+    assertEquals(Integer.MAX_VALUE, schedule.nextBatch());
+    assertEquals(1, schedule.batchSize(Integer.MAX_VALUE));
+    assertEquals(0, schedule.nextBatch());
+  }
+}
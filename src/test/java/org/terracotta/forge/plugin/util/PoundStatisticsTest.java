@@ -0,0 +1,94 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PoundStatisticsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void computesDurationPercentiles() {
+    PoundStatistics statistics = new PoundStatistics();
+    for (int i = 100; i >= 1; i--) {
+      statistics.record(i, i * 10, true);
+    }
+    assertEquals(10, statistics.getDurationPercentile(0));
+    assertEquals(500, statistics.getDurationPercentile(50));
+    assertEquals(990, statistics.getDurationPercentile(99));
+    assertEquals(1000, statistics.getDurationPercentile(100));
+  }
+
+  @Test
+  public void samplesDurationsOfLongRuns() {
+    PoundStatistics statistics = new PoundStatistics();
+    int iterations = 20 * PoundStatistics.SAMPLE_SIZE;
+    for (int i = iterations; i >= 1; i--) {
+      statistics.record(i, i, true);
+    }
+    assertEquals(iterations, statistics.getIterations());
+    assertEquals(1, statistics.getDurationPercentile(0));
+    assertEquals(iterations, statistics.getDurationPercentile(100));
+    // the standard deviation of the sampled median is about 1000 here
+    assertEquals(iterations / 2, statistics.getDurationPercentile(50), 6000);
+    assertEquals(iterations * 0.99, statistics.getDurationPercentile(99), 6000);
+  }
+
+  @Test
+  public void computesFailureRateInterval() {
+    PoundStatistics statistics = new PoundStatistics();
+    for (int i = 1; i <= 100; i++) {
+      statistics.record(i, 1, i != 42);
+    }
+    assertEquals(0.01, statistics.getFailureRate(), 1e-9);
+    assertArrayEquals(new double[] { 0.00177, 0.05449 }, statistics.getFailureRateInterval(), 1e-5);
+    assertEquals(Arrays.asList(42), statistics.getFailedIterations());
+
+    PoundStatistics passing = new PoundStatistics();
+    for (int i = 1; i <= 100; i++) {
+      passing.record(i, 1, true);
+    }
+    // no failure seen doesn't mean the test can't fail
+    assertArrayEquals(new double[] { 0, 0.03699 }, passing.getFailureRateInterval(), 1e-5);
+  }
+
+  @Test
+  public void writesSummary() throws Exception {
+    PoundStatistics statistics = new PoundStatistics();
+    statistics.record(1, 100, true);
+    statistics.record(3, 300, false);
+    statistics.record(2, 200, false);
+    File summary = new File(folder.getRoot(), "pound-summary.properties");
+
+    statistics.write(summary, "FooTest", 1234);
+
+    Properties properties = new Properties();
+    FileInputStream in = new FileInputStream(summary);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    assertEquals("FooTest", properties.getProperty("test"));
+    assertEquals("3", properties.getProperty("iterations"));
+    assertEquals("1", properties.getProperty("passed"));
+    assertEquals("2,3", properties.getProperty("failedIterations"));
+    assertEquals("0.66667", properties.getProperty("failureRate"));
+    assertEquals("200", properties.getProperty("durationMedianMillis"));
+    assertEquals("1234", properties.getProperty("elapsedMillis"));
+  }
+}
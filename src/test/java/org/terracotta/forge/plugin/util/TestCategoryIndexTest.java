@@ -0,0 +1,89 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCategoryIndexTest {
+
+  public interface SlowTests {
+  }
+
+  public interface NightlyTests {
+  }
+
+  @Category(SlowTests.class)
+  public static class SlowTest {
+  }
+
+  @Category({ SlowTests.class, NightlyTests.class })
+  public static class NightlyTest {
+  }
+
+  public static class PlainTest {
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File testClasses;
+  private File cache;
+
+  @Before
+  public void setUp() throws Exception {
+    testClasses = folder.newFolder("test-classes");
+    cache = new File(folder.getRoot(), TestCategoryIndex.FILENAME);
+    for (Class<?> c : Arrays.asList(SlowTest.class, NightlyTest.class, PlainTest.class)) {
+      copyClass(c);
+    }
+  }
+
+  private void copyClass(Class<?> c) throws Exception {
+    String path = c.getName().replace('.', '/') + ".class";
+    FileUtils.copyURLToFile(c.getClassLoader().getResource(path), new File(testClasses, path));
+  }
+
+  @Test
+  public void findsCategorizedClasses() throws Exception {
+    TestCategoryIndex index = TestCategoryIndex.update(testClasses, cache, new SystemStreamLog());
+
+    assertEquals(3, index.getScanned());
+    assertEquals(Arrays.asList(NightlyTest.class.getName(), SlowTest.class.getName()),
+        index.getCategorizedClasses());
+    assertEquals(Arrays.asList(SlowTests.class.getName(), NightlyTests.class.getName()),
+        index.getCategories(NightlyTest.class.getName()));
+    assertEquals(Collections.emptyList(), index.getCategories(PlainTest.class.getName()));
+    assertTrue(cache.isFile());
+  }
+
+  @Test
+  public void onlyReadsChangedClasses() throws Exception {
+    TestCategoryIndex.update(testClasses, cache, new SystemStreamLog());
+
+    // a category removed from SlowTest, as seen by the index
+    File plainTest = new File(testClasses, PlainTest.class.getName().replace('.', '/') + ".class");
+    File slowTest = new File(testClasses, SlowTest.class.getName().replace('.', '/') + ".class");
+    FileUtils.copyFile(plainTest, slowTest, false);
+    assertTrue(slowTest.setLastModified(slowTest.lastModified() + 2000));
+
+    TestCategoryIndex index = TestCategoryIndex.update(testClasses, cache, new SystemStreamLog());
+
+    assertEquals(1, index.getScanned());
+    assertEquals(Arrays.asList(NightlyTest.class.getName()), index.getCategorizedClasses());
+  }
+}
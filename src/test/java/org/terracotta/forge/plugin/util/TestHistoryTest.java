@@ -0,0 +1,70 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.maven.surefire.api.runorder.RunEntryStatisticsMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHistoryTest {
+
+  static class QuickTest {
+  }
+
+  static class SlowTest {
+  }
+
+  static class BrokenTest {
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void countsSuccessfulRunsSinceTheLastFailure() throws Exception {
+    File file = new File(folder.getRoot(), TestHistory.FILENAME);
+    TestHistory history = TestHistory.read(file);
+    history.record(new ReportSummary("A", 2, 0, 0, 0, 1.5, false));
+    history.record(new ReportSummary("B", 2, 1, 0, 0, 2.0, false));
+    history.write(file);
+
+    history = TestHistory.read(file);
+    history.record(new ReportSummary("A", 2, 0, 0, 0, 1.25, false));
+    // crashed without a duration
+    history.record(new ReportSummary("B", 1, 1, 0, 0, 0, true));
+    history.record(new ReportSummary("C", 1, 0, 0, 1, 0, false));
+
+    assertEquals(2, history.getSuccessfulRuns("A"));
+    assertEquals(1250, history.getMillis("A"));
+    assertEquals(0, history.getSuccessfulRuns("B"));
+    assertEquals(2000, history.getMillis("B"));
+    assertEquals(-1, history.getSuccessfulRuns("C"));
+  }
+
+  @Test
+  public void ordersSurefireRuns() throws Exception {
+    TestHistory history = new TestHistory();
+    history.record(new ReportSummary(QuickTest.class.getName(), 1, 0, 0, 0, 0.1, false));
+    history.record(new ReportSummary(SlowTest.class.getName(), 1, 0, 0, 0, 30, false));
+    history.record(new ReportSummary(BrokenTest.class.getName(), 1, 1, 0, 0, 1, false));
+    File statisticsFile = folder.newFile(".surefire-test");
+    history.writeRunOrderStatistics(statisticsFile);
+
+    RunEntryStatisticsMap statistics = RunEntryStatisticsMap.fromFile(statisticsFile);
+    List<Class<?>> classes = Arrays.<Class<?>> asList(QuickTest.class, SlowTest.class, BrokenTest.class);
+    assertEquals(BrokenTest.class, statistics.getPrioritizedTestsByFailureFirst(new ArrayList<Class<?>>(classes))
+        .get(0));
+    assertEquals(SlowTest.class, statistics.getPrioritizedTestsClassRunTime(new ArrayList<Class<?>>(classes), 1)
+        .get(0));
+  }
+}
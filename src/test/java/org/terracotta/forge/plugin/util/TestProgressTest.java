@@ -0,0 +1,33 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class TestProgressTest {
+
+  @Test
+  public void reportsEveryFork() {
+    TestProgress progress = new TestProgress();
+    TestProgress.Fork first = progress.newFork();
+    TestProgress.Fork second = progress.newFork();
+    first.started("com.acme.FooTest");
+    first.completed(3, 1, 0);
+    first.started("com.acme.BarTest");
+    second.started("com.acme.BazTest");
+    second.completed(2, 0, 1);
+
+    String json = progress.toJson();
+
+    assertTrue(json, json.contains("\"classesStarted\": 3, \"classesCompleted\": 2, \"testsCompleted\": 5, "
+                                   + "\"testsFailed\": 1, \"testsSkipped\": 1"));
+    assertTrue(json, json.contains("{\"fork\": 1, \"classesStarted\": 2, \"classesCompleted\": 1"));
+    assertTrue(json, json.contains("\"currentClass\": \"com.acme.BarTest\""));
+    assertTrue(json, json.contains("{\"fork\": 2, \"classesStarted\": 1, \"classesCompleted\": 1"));
+    assertTrue(json, json.contains("\"currentClass\": null"));
+  }
+}
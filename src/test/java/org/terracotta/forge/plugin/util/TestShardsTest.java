@@ -0,0 +1,74 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestShardsTest {
+
+  @Test
+  public void balancesShardsByDuration() {
+    Map<String, Double> durations = new HashMap<String, Double>();
+    durations.put("A", 7.0);
+    durations.put("B", 5.0);
+    durations.put("C", 4.0);
+    durations.put("D", 3.0);
+    durations.put("E", 3.0);
+    durations.put("F", 2.0);
+
+    TestShards shards = TestShards.partition(durations.keySet(), durations, 2);
+
+    // A(7) | B(5) C(4) -> A D(3) | B C -> A D F(2) | B C E(3)
+    assertEquals(Arrays.asList("A", "D", "F"), shards.getShard(0));
+    assertEquals(Arrays.asList("B", "C", "E"), shards.getShard(1));
+    assertEquals(12.0, shards.getDuration(0), 0.0);
+    assertEquals(12.0, shards.getDuration(1), 0.0);
+  }
+
+  @Test
+  public void unknownClassesCountForTheMedian() {
+    Map<String, Double> durations = new HashMap<String, Double>();
+    durations.put("Slow", 10.0);
+    durations.put("Medium", 4.0);
+    durations.put("Fast", 1.0);
+    List<String> classes = Arrays.asList("Fast", "Medium", "New", "Slow");
+
+    TestShards shards = TestShards.partition(classes, durations, 2);
+
+    assertEquals(Arrays.asList("Slow"), shards.getShard(0));
+    assertEquals(Arrays.asList("Fast", "Medium", "New"), shards.getShard(1));
+    assertEquals(9.0, shards.getDuration(1), 0.0);
+  }
+
+  @Test
+  public void everyClassIsInExactlyOneShard() {
+    Map<String, Double> durations = new HashMap<String, Double>();
+    Set<String> classes = new HashSet<String>();
+    for (int i = 0; i < 100; i++) {
+      classes.add("Test" + i);
+      durations.put("Test" + i, (double) (i % 7));
+    }
+
+    TestShards shards = TestShards.partition(classes, durations, 3);
+
+    Set<String> seen = new HashSet<String>();
+    for (int i = 0; i < 3; i++) {
+      for (String className : shards.getShard(i)) {
+        assertTrue(seen.add(className));
+      }
+    }
+    assertEquals(classes, seen);
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright IBM Corp. 2024, 2025
+ */
+package org.terracotta.forge.plugin.util;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+public class UtilTest {
+
+  @Before
+  public void needsShell() {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+  }
+
+  @Test
+  public void execDrainsBothStreams() throws Exception {
+    // more than a pipe buffer on stderr before anything on stdout
+    List<String> output = new ArrayList<String>();
+    AtomicInteger errors = new AtomicInteger();
+    int exitCode = Util.exec(Arrays.asList("sh", "-c", "seq 1 100000 >&2; echo done; exit 3"), new File("."), 30,
+        TimeUnit.SECONDS, output::add, line -> errors.incrementAndGet());
+
+    assertEquals(3, exitCode);
+    assertEquals(Arrays.asList("done"), output);
+    assertEquals(100000, errors.get());
+  }
+
+  @Test
+  public void execKillsTheCommandsOnTimeout() throws Exception {
+    long start = System.nanoTime();
+    try {
+      // the child sleep keeps the streams open once sh is killed, unless it is killed too
+      Util.exec(Arrays.asList("sh", "-c", "sleep 60 & sleep 60"), new File("."), 500, TimeUnit.MILLISECONDS,
+          line -> { }, line -> { });
+      fail();
+    } catch (TimeoutException e) {
+      // expected
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+  }
+}